@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This class is a dictionary that counts words after approximately. There is
+ * one Count-Min Sketch for each distance, so the memory for the counts is fixed
+ * when the dictionary is made no matter how much is read. Next to each sketch
+ * is a table of candidates with as many buckets as the sketch is wide. A pair
+ * of words hashes to one bucket, and each bucket remembers the pairs with the
+ * highest estimates (the heavy hitters). The table is made with the sketch
+ * and never grows. Everything else is only in the sketches.
+ *
+ * Words in this dictionary do not have words after maps. Freezing the
+ * dictionary gives each word successor lists made from the candidates it
+ * starts and their estimates, which is what the writer picks from. Rare words
+ * can lose all their candidates to heavier pairs. Freeze the dictionary again
+ * after reading more.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class ApproximateDictionary extends Dictionary {
+
+    static final long serialVersionUID = -3010695769693014499L;
+
+    public static final int DEFAULT_CANDIDATES = 16;
+
+    private final double epsilon;
+    private final double delta;
+    private final int candidates;
+
+    private CountMinSketch[] sketches;
+    private int buckets;
+    private int[][] candidateFroms;
+    private int[][] candidateIds;
+    private int[][] candidateCounts;
+    private int[] lastIds;
+
+    /**
+     * Creates an empty approximate dictionary.
+     *
+     * @param epsilon Error of an estimate as a fraction of the total count.
+     * @param delta Chance that an estimate is off by more than epsilon.
+     * @param candidates Number of pairs remembered in each bucket of the
+     * candidate tables.
+     */
+    public ApproximateDictionary(double epsilon, double delta, int candidates) {
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.candidates = candidates;
+        new CountMinSketch(epsilon, delta); //Checks the bounds now instead of at the first word
+        regenerateLastWords();
+    }
+
+    /**
+     * Gets the number of bytes each distance's sketch uses.
+     *
+     * @return Bytes per distance.
+     */
+    public long getSketchBytes() {
+        return new CountMinSketch(epsilon, delta).getBytes();
+    }
+
+    /**
+     * Gets the number of bytes each distance's candidate table uses.
+     *
+     * @return Bytes per distance.
+     */
+    public long getCandidateBytes() {
+        return 12L * new CountMinSketch(epsilon, delta).getWidth() * candidates;
+    }
+
+    /**
+     * Approximate dictionaries do not evict words.
+     *
+     * @param vocabularyLimit Must be 0.
+     */
+    @Override
+    public synchronized void setVocabularyLimit(int vocabularyLimit) {
+        if (vocabularyLimit != 0) {
+            throw new UnsupportedOperationException("Approximate dictionaries do not have a vocabulary limit");
+        }
+    }
+
+    @Override
+    public synchronized void regenerateLastWords() {
+        lastIds = new int[getAccuracy()];
+        Arrays.fill(lastIds, -1);
+    }
+
+    /**
+     * Makes the sketches. This is done with the first word, when the accuracy
+     * is known.
+     */
+    private void createSketches(int distances) {
+        sketches = new CountMinSketch[distances];
+        candidateFroms = new int[distances][];
+        candidateIds = new int[distances][];
+        candidateCounts = new int[distances][];
+        for (int i = 0; i < distances; i++) {
+            sketches[i] = new CountMinSketch(epsilon, delta);
+            buckets = sketches[i].getWidth();
+            candidateFroms[i] = new int[buckets * candidates];
+            candidateIds[i] = new int[buckets * candidates];
+            candidateCounts[i] = new int[buckets * candidates];
+            Arrays.fill(candidateFroms[i], -1);
+        }
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    private int bucket(long key) {
+        long h = key * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return (int) ((h >>> 1) % buckets);
+    }
+
+    private void addTransition(int from, int distance, int to, int count) {
+        if (distance >= sketches.length) {
+            throw new IllegalStateException("The approximate dictionary was created with an accuracy of " + sketches.length);
+        }
+        long key = key(from, to);
+        int estimate = sketches[distance].add(key, count);
+
+        int[] froms = candidateFroms[distance];
+        int[] ids = candidateIds[distance];
+        int[] counts = candidateCounts[distance];
+        int start = bucket(key) * candidates;
+        int free = -1;
+        int lowest = start;
+        for (int i = start; i < start + candidates; i++) {
+            if (froms[i] == from && ids[i] == to) {
+                counts[i] = estimate;
+                return;
+            } else if (froms[i] < 0) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (counts[i] < counts[lowest]) {
+                lowest = i;
+            }
+        }
+
+        if (free >= 0) {
+            froms[free] = from;
+            ids[free] = to;
+            counts[free] = estimate;
+        } else if (estimate > counts[lowest]) {
+            froms[lowest] = from;
+            ids[lowest] = to;
+            counts[lowest] = estimate;
+        }
+    }
+
+    /**
+     * Adds a loaded word. Its counts are added to the sketches like words that
+     * were read.
+     *
+     * @param word Word to be added.
+     */
+    @Override
+    public synchronized void addWord(Word word) {
+        if (sketches == null) {
+            createSketches(word.getAccuracy());
+        }
+
+        int id = getWordId(word.getName());
+        Word mine = getWord(id);
+        mine.rarity += word.getRarity();
+        for (int i = 0; i < Math.min(sketches.length, word.getAccuracy()); i++) {
+            for (Map.Entry<String, Integer> entry : word.getWordsAfter(i).entrySet()) {
+                addTransition(id, i, getWordId(entry.getKey()), entry.getValue());
+            }
+        }
+        if (word instanceof Punctuation && mine instanceof Punctuation) {
+            ((Punctuation) mine).getSentenceLengths().addAll(((Punctuation) word).getSentenceLengths());
+        }
+        changed();
+    }
+
+    @Override
+    public synchronized void addWord(String name) {
+        addToken(getWordId(name));
+        changed();
+
+        DerpyManager.getMetrics().addTokens(1);
+        DerpyManager.getMetrics().addTransitions(getAccuracy());
+    }
+
+    @Override
+    public synchronized void addTokens(int[] ids, int from, int to) {
+        for (int i = from; i < to; i++) {
+            addToken(ids[i]);
+        }
+        changed();
+
+        DerpyManager.getMetrics().addTokens(to - from);
+        DerpyManager.getMetrics().addTransitions((long) (to - from) * getAccuracy());
+    }
+
+    private void addToken(int id) {
+        if (sketches == null) {
+            createSketches(getAccuracy());
+        }
+
+        Word word = getWord(id);
+        for (int i = lastIds.length - 1; i >= 0; i--) {
+            if (lastIds[i] < 0) {
+                Word.wordNotFound.addWordAfter(word, i);
+            } else {
+                addTransition(lastIds[i], i, id, 1);
+            }
+        }
+
+        for (int i = lastIds.length - 1; i > 0; i--) {
+            lastIds[i] = lastIds[i - 1];
+        }
+        lastIds[0] = id;
+        word.increaseRarity();
+
+        if (DerpyReader.isPunctuation(word)) {
+            ((Punctuation) word).addLength(lastPunctuation);
+            lastPunctuation = 0;
+        } else {
+            lastPunctuation++;
+        }
+    }
+
+    /**
+     * Gets the id of a word, creating it if it does not exist. New words do
+     * not get words after maps.
+     *
+     * @param name The string representation of the word.
+     * @return The id of the word.
+     */
+    @Override
+    public synchronized int getWordId(String name) {
+        if (!hasWord(name)) {
+            Word word = Arrays.asList(Punctuation.punctuations).contains(name) ? new Punctuation(name, 0) : new Word(name, 0);
+            word.rarity = 0;
+            super.addWord(word);
+        }
+        return super.getWordId(name);
+    }
+
+    /**
+     * Gives every word successor lists made from the candidates it starts and
+     * their current estimates.
+     *
+     * @return Approximate bytes used by the sketches, candidates and
+     * successor lists.
+     */
+    @Override
+    public synchronized long freeze() {
+        if (sketches == null) {
+            return 0;
+        }
+
+        long bytes = 0;
+        int words = getSize();
+        int[][] starts = new int[sketches.length][];
+        int[][] ids = new int[sketches.length][];
+        int[][] counts = new int[sketches.length][];
+        for (int d = 0; d < sketches.length; d++) { //Sorts the candidates by the word they start from
+            int[] froms = candidateFroms[d];
+            starts[d] = new int[words + 1];
+            for (int i = 0; i < froms.length; i++) {
+                if (froms[i] >= 0) {
+                    starts[d][froms[i] + 1]++;
+                }
+            }
+            for (int id = 0; id < words; id++) {
+                starts[d][id + 1] += starts[d][id];
+            }
+            ids[d] = new int[starts[d][words]];
+            counts[d] = new int[starts[d][words]];
+            int[] next = Arrays.copyOf(starts[d], words);
+            for (int i = 0; i < froms.length; i++) {
+                if (froms[i] >= 0) {
+                    int at = next[froms[i]]++;
+                    ids[d][at] = candidateIds[d][i];
+                    counts[d][at] = sketches[d].estimate(key(froms[i], candidateIds[d][i]));
+                }
+            }
+        }
+
+        for (int id = 0; id < words; id++) {
+            SuccessorList[] lists = new SuccessorList[sketches.length];
+            for (int d = 0; d < sketches.length; d++) {
+                int from = starts[d][id];
+                int to = starts[d][id + 1];
+                lists[d] = SuccessorList.of(Arrays.copyOfRange(ids[d], from, to), Arrays.copyOfRange(counts[d], from, to), to - from);
+                bytes += lists[d].getDataBytes();
+            }
+            getWord(id).freeze(this, lists);
+        }
+        snapshotFrozenWords();
+        changed();
+
+        for (int d = 0; d < sketches.length; d++) {
+            bytes += sketches[d].getBytes() + 12L * candidateIds[d].length;
+        }
+        return bytes;
+    }
+
+}
@@ -25,7 +25,6 @@ package hrcek.core;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.EOFException;
 import java.io.File;
@@ -33,14 +32,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.swing.UIManager;
 
 /**
  *
@@ -59,23 +54,54 @@ public class Boot {
         msg += "Usage:";
         msg += "java -jar DerpyWriter.jar <arguments>\n\n";
         msg += "\tArguments:\n";
-        msg += "\t<source files>        plaintext files used for source\n";
-        msg += "\t-a [#]                accuracy (default 1)\n";
+        msg += "\t<source files>        plaintext files used for source (.gz and .zip are read too)\n";
+        msg += "\t                      directories and quoted globs (i.e. \"docs/**.txt\") are walked\n";
+        msg += "\t-a [#]                accuracy (default 1, may be lower than a loaded dictionary's)\n";
         msg += "\t-c [#]                output count (default 100)\n";
         msg += "\t-h      --help        display this text\n";
         msg += "\t-o [FILE]             output file (default stdout, hyphen for stdout)\n";
         msg += "\t-t [#]                thread count (default 1)\n";
+        msg += "\t-ps [#,#,#]           read, normalize and map threads for reading (default cores,cores,1)\n";
         msg += "\t-i                    ignore logical punctuation checking.\n";
         msg += "\t-l [FILE]             load dictionary file.\n";
         msg += "\t-s [FILE]             save dictionary file.\n";
+        msg += "\t--incremental         with -s, only read sources changed since -l was saved (words are\n";
+        msg += "\t                      not counted across source boundaries, also with --checkpoint)\n";
+        msg += "\t--checkpoint [#]      with -s, list the sources finished every # seconds while reading\n";
+        msg += "\t--resume              with -s, add the sources finished by the last checkpoint instead of\n";
+        msg += "\t                      reading them again\n";
         msg += "\t-r                    only read files.\n";
+        msg += "\t--off-heap            keep the dictionary in direct memory (raise -XX:MaxDirectMemorySize)\n";
+        msg += "\t--off-heap-dir [DIR]  keep the dictionary in memory mapped files in DIR\n";
+        msg += "\t--cache-size [#]      next word distributions cached while writing (default 1024, 0 for none)\n";
+        msg += "\t--vocab-limit [#]     most words to keep while reading, rarer words become <unk>\n";
+        msg += "\t--heap-budget [SIZE]  spill words to disk while reading past SIZE (i.e. 512m, 2g)\n";
+        msg += "\t--spill-dir [DIR]     write spilled words to DIR (default temp directory)\n";
+        msg += "\t--approximate [E,D,K] count words after in sketches with error E and chance D,\n";
+        msg += "\t                      keeping the top K in each sketch column (default D 0.01, K 16)\n";
+        msg += "\t-merge [FILE]         merge a dictionary file into the -s dictionary (repeat for each file)\n";
+        msg += "\t--inspect [FILE]      report what a dictionary file holds without loading it\n";
+        msg += "\t--inspect-top [#]     heaviest words listed by --inspect (default 20)\n";
+        msg += "\t--suggest [TEXT]      print the likely next words after TEXT instead of writing\n";
+        msg += "\t                      (hyphen reads one TEXT per line from stdin)\n";
+        msg += "\t--suggest-count [#]   most words given by --suggest (default 5)\n";
         msg += "\t-v                    verbose mode\n";
         msg += "\t-w [#] [FILE]         weight a file relative to the other files\n";
         msg += "\t-nf                   do not format text\n";
         msg += "\t-fo <txt,html>        Output text as a format (Default plaintext)\n";
         msg += "\t-fi <txt,normal,html> Input text as a format (Default normal)\n";
         msg += "\t-d                    Enable debug mode\n";
-        msg += "\t-st                   Enable strict mode\n";        
+        msg += "\t-st                   Enable strict mode\n";
+        msg += "\t--serve [PORT]        serve stories over HTTP on localhost\n";
+        msg += "\t--daemon [PORT]       keep dictionaries loaded and serve --client runs\n";
+        msg += "\t--daemon-models [#]   most models the daemon keeps loaded (default 4)\n";
+        msg += "\t--client [PORT]       send this run to a daemon on localhost\n";
+        msg += "\t--registry [DIR]      let --serve requests pick any .dict file in DIR with dictionary=NAME\n";
+        msg += "\t--registry-budget [SIZE]\n";
+        msg += "\t                      memory for registry dictionaries, least used are dropped (i.e. 2g)\n";
+        msg += "\t-include [GLOB]       only read walked files matching the pattern\n";
+        msg += "\t-exclude [GLOB]       skip walked files and directories matching the pattern\n";
+        msg += "\t-stats [FILE]         write phase timings as JSON (hyphen for stderr)\n";
 
         return msg;
     }
@@ -104,38 +130,122 @@ public class Boot {
     public static void main(String[] args) throws InterruptedException {
 
         if (args.length == 0) {
-            DerpyGUI gui = new DerpyGUI();
+            DerpyManager.registerMetrics();
+            startGui();
         } else {
+            DerpyManager.registerMetricsInBackground(); //Starting JMX takes longer than a short run
 
             checkFlags(args);
+            if (!DerpyManager.getMergeInputs().isEmpty()) {
+                DerpyManager.mergeDictionaries();
+                return;
+            }
+            if (DerpyManager.getInspectInput() != null) {
+                DerpyManager.inspectDictionary();
+                return;
+            }
+
+            if (DerpyManager.getDaemonPort() > 0) {
+                DerpyManager.startDaemon();
+                return;
+            }
+
             if (!DerpyManager.checkIfHasWritingSource()) {
                 System.out.println("This requires at least one source file");
                 showUsage();
                 System.exit(1);
             }
 
-            DerpyManager.setDictionary(new Dictionary());
+            if (DerpyManager.getClientPort() > 0) {
+                System.exit(DerpyClient.run(DerpyManager.getClientPort()));
+            }
+
+            DerpyStats stats = DerpyManager.getStats();
+            stats.setMeasuringResources(DerpyManager.getStatsFile() != null);
+            DerpyStats.Phase phase;
+
+            DerpyManager.setDictionary(DerpyManager.createDictionary());
 
             if (DerpyManager.getInputDictionary() != null) {
+                phase = stats.begin("loadDictionary");
                 DerpyManager.loadDictionary();
+                stats.end(phase);
             }
 
             DerpyManager.setWordAccuracy();
+            phase = stats.begin("readSources");
             DerpyManager.readSources();
-            DerpyManager.checkIfRequestedAccuracyIsWithinAcceptableBounds();
+            stats.end(phase);
 
-            if (DerpyManager.shouldWrite()) {
+            boolean generates = DerpyManager.getSuggestContext() != null || DerpyManager.getServePort() > 0 || DerpyManager.shouldWrite();
+            boolean approximate = DerpyManager.getDictionary() instanceof ApproximateDictionary;
+            if (generates || (approximate && DerpyManager.getOutputDictionary() != null)) { //Approximate words only get counts when frozen
+                phase = stats.begin("freeze");
+                DerpyManager.freezeDictionary(DerpyManager.getDictionary());
+                stats.end(phase);
+            } else {
+                printIfVerbose("Freeze skipped...");
+            }
+
+            if (DerpyManager.getSuggestContext() != null) {
+                phase = stats.begin("suggest");
+                DerpyManager.suggest();
+                stats.end(phase);
+            } else if (DerpyManager.getServePort() > 0) {
+                printIfVerbose("Write skipped for server...");
+            } else if (DerpyManager.shouldWrite()) {
+                phase = stats.begin("write");
                 System.out.println(DerpyManager.write());
+                stats.end(phase);
             } else {
                 printIfVerbose("Write skipped...");
             }
 
             if (DerpyManager.getOutputDictionary() != null) {
+                phase = stats.begin("saveDictionary");
                 DerpyManager.saveDictionary();
+                stats.end(phase);
+            }
+
+            if (DerpyManager.getStatsFile() != null) {
+                stats.write(DerpyManager.getStatsFile());
+            }
+
+            if (DerpyManager.getServePort() > 0) {
+                DerpyManager.serve();
             }
         }
     }
 
+    /**
+     * Parses a size in bytes with a k, m or g suffix. Sizes without a suffix
+     * are in megabytes.
+     *
+     * @param size The size, like "512m".
+     * @return The size in bytes.
+     */
+    private static long parseSize(String size) {
+        String number = size.toLowerCase();
+        long unit = 1 << 20;
+        if (number.endsWith("k")) {
+            unit = 1 << 10;
+        } else if (number.endsWith("g")) {
+            unit = 1 << 30;
+        }
+        if (number.endsWith("k") || number.endsWith("m") || number.endsWith("g")) {
+            number = number.substring(0, number.length() - 1);
+        }
+        return Long.parseLong(number) * unit;
+    }
+
+    /**
+     * Opens the GUI. The GUI is only referenced from here, so command line
+     * runs never load Swing.
+     */
+    private static void startGui() {
+        new DerpyGUI();
+    }
+
     public static void printIfVerbose(String msg) {
         if (DerpyManager.isVERBOSE()) {
             System.out.println(msg);
@@ -214,28 +324,16 @@ public class Boot {
                     } else {
                         ++i;
                         DerpyManager.setThreadable(false);
-                        if (isFilenameValid(args[i])) {
+                        if (DerpyWalker.isPattern(args[i]) && !args[i].toLowerCase().equals("*stdin*")) {
+                            DerpyManager.getSources().add(args[i]);
+                            DerpyManager.getWeights().add(weight);
+                        } else if (isFilenameValid(args[i])) {
                             if (new File(args[i]).exists()) {
                                 DerpyManager.getSources().add(new File(args[i]).getAbsolutePath());
                                 DerpyManager.getWeights().add(weight);
                             }
                         } else if (args[i].toLowerCase().equals("*stdin*")) {
-                            if (DerpyManager.stdin == null) {
-                                BufferedReader derpReader = new BufferedReader(new InputStreamReader(System.in));
-                                StringBuilder builder = new StringBuilder();
-                                String aux = "";
-
-                                try {
-                                    while ((aux = derpReader.readLine()) != null) {
-                                        builder.append(aux);
-                                        builder.append('\n');
-                                    }
-                                } catch (IOException ex) {
-                                    Logger.getLogger(Boot.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                                DerpyManager.stdin = builder.toString();
-                            }
-                            DerpyManager.getSources().add("*STDIN*");
+                            DerpyManager.getSources().add(DerpyReader.STDIN);
                             DerpyManager.getWeights().add(weight);
                         } else {
                             DerpyLogger.error("Invalid filename: " + args[i]);
@@ -245,12 +343,9 @@ public class Boot {
                     DerpyLogger.error("Argument must be a positive integer! (i.e. \"-w 1 [filename]\")");
                 }
             } else if (args[i].equals("-fo")) {
-                i++;
-
-                if (args[i].toLowerCase().equals("plaintext") || args[i].toLowerCase().equals("text") || args[i].toLowerCase().equals("txt")) {
-                    DerpyManager.setFileOutputFormat(DerpyFormatter.DERPY_FORMAT_PLAINTEXT);
-                } else if (args[i].toLowerCase().equals("html") || args[i].toLowerCase().equals("htm")) {
-                    DerpyManager.setFileOutputFormat(DerpyFormatter.DERPY_FORMAT_HTML);
+                int format = DerpyFormatter.parseOutputFormat(args[++i]);
+                if (format >= 0) {
+                    DerpyManager.setFileOutputFormat(format);
                 }
 
             } else if (args[i].equals("-fi")) {
@@ -268,30 +363,221 @@ public class Boot {
                 DerpyLogger.setDebugMode(true);
             } else if (args[i].equals("-st")) {
                 DerpyManager.setStrictMode(true);
+            } else if (args[i].equals("--serve")) {
+                try {
+                    DerpyManager.setServePort(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getServePort() < 1 || DerpyManager.getServePort() > 65535) {
+                        DerpyLogger.error("Argument must be a valid port! (i.e. \"--serve 8080\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a valid port! (i.e. \"--serve 8080\")");
+                }
+            } else if (args[i].equals("--daemon") || args[i].equals("--client")) {
+                try {
+                    int port = Integer.parseInt(args[i + 1]);
+                    if (port < 1 || port > 65535) {
+                        DerpyLogger.error("Argument must be a valid port! (i.e. \"" + args[i] + " 7070\")");
+                    }
+                    if (args[i].equals("--daemon")) {
+                        DerpyManager.setDaemonPort(port);
+                    } else {
+                        DerpyManager.setClientPort(port);
+                    }
+                    i++;
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a valid port! (i.e. \"" + args[i] + " 7070\")");
+                }
+            } else if (args[i].equals("--daemon-models")) {
+                try {
+                    DerpyManager.setDaemonModels(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getDaemonModels() < 1) {
+                        DerpyLogger.error("Argument must be a positive integer! (i.e. \"--daemon-models 4\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer! (i.e. \"--daemon-models 4\")");
+                }
+            } else if (args[i].equals("-ps")) {
+                try {
+                    String[] counts = args[++i].split(",");
+                    DerpyManager.setReadThreads(Integer.parseInt(counts[0]));
+                    DerpyManager.setNormalizeThreads(Integer.parseInt(counts[1]));
+                    DerpyManager.setMapThreads(Integer.parseInt(counts[2]));
+                    if (DerpyManager.readThreads < 1 || DerpyManager.normalizeThreads < 1 || DerpyManager.getMapThreads() < 1) { //The getters fill in unset counts
+                        DerpyLogger.error("Argument must be three positive integers! (i.e. \"-ps 1,4,1\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be three positive integers! (i.e. \"-ps 1,4,1\")");
+                }
+            } else if (args[i].equals("--incremental")) {
+                DerpyManager.setIncremental(true);
+            } else if (args[i].equals("--checkpoint")) {
+                try {
+                    DerpyManager.setCheckpointSeconds(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getCheckpointSeconds() < 1) {
+                        DerpyLogger.error("Argument must be a positive integer! (i.e. \"--checkpoint 60\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer! (i.e. \"--checkpoint 60\")");
+                }
+            } else if (args[i].equals("--resume")) {
+                DerpyManager.setResume(true);
+            } else if (args[i].equals("--off-heap")) {
+                DerpyManager.setOffHeap(true);
+            } else if (args[i].equals("--off-heap-dir")) {
+                try {
+                    File directory = new File(args[++i]);
+                    if (!directory.isDirectory()) {
+                        DerpyLogger.error("Argument must be a directory! (i.e. \"--off-heap-dir /tmp\")");
+                    }
+                    DerpyManager.setOffHeapDirectory(directory.getPath());
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    DerpyLogger.error("Argument must be a directory! (i.e. \"--off-heap-dir /tmp\")");
+                }
+            } else if (args[i].equals("--cache-size")) {
+                try {
+                    DerpyManager.setCacheSize(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getCacheSize() < 0) {
+                        DerpyLogger.error("Argument must be a positive integer or 0! (i.e. \"--cache-size 1024\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer or 0! (i.e. \"--cache-size 1024\")");
+                }
+            } else if (args[i].equals("--vocab-limit")) {
+                try {
+                    DerpyManager.setVocabularyLimit(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getVocabularyLimit() < 1) {
+                        DerpyLogger.error("Argument must be a positive integer! (i.e. \"--vocab-limit 100000\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer! (i.e. \"--vocab-limit 100000\")");
+                }
+            } else if (args[i].equals("--heap-budget")) {
+                try {
+                    DerpyManager.setHeapBudget(parseSize(args[++i]));
+                    if (DerpyManager.getHeapBudget() < (1 << 20)) {
+                        DerpyLogger.error("Argument must be a size of at least 1m! (i.e. \"--heap-budget 512m\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a size of at least 1m! (i.e. \"--heap-budget 512m\")");
+                }
+            } else if (args[i].equals("--registry")) {
+                try {
+                    File directory = new File(args[++i]);
+                    if (!directory.isDirectory()) {
+                        DerpyLogger.error("Argument must be a directory! (i.e. \"--registry models\")");
+                    }
+                    DerpyManager.setRegistryDirectory(directory.getPath());
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    DerpyLogger.error("Argument must be a directory! (i.e. \"--registry models\")");
+                }
+            } else if (args[i].equals("--registry-budget")) {
+                try {
+                    DerpyManager.setRegistryBudget(parseSize(args[++i]));
+                    if (DerpyManager.getRegistryBudget() < 1) {
+                        DerpyLogger.error("Argument must be a size! (i.e. \"--registry-budget 2g\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a size! (i.e. \"--registry-budget 2g\")");
+                }
+            } else if (args[i].equals("--spill-dir")) {
+                try {
+                    File directory = new File(args[++i]);
+                    if (!directory.isDirectory()) {
+                        DerpyLogger.error("Argument must be a directory! (i.e. \"--spill-dir /tmp\")");
+                    }
+                    DerpyManager.setSpillDirectory(directory.getPath());
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    DerpyLogger.error("Argument must be a directory! (i.e. \"--spill-dir /tmp\")");
+                }
+            } else if (args[i].equals("--approximate")) {
+                try {
+                    String[] bounds = args[++i].split(",");
+                    DerpyManager.setApproximateEpsilon(Double.parseDouble(bounds[0]));
+                    if (bounds.length > 1) {
+                        DerpyManager.setApproximateDelta(Double.parseDouble(bounds[1]));
+                    }
+                    if (bounds.length > 2) {
+                        DerpyManager.setApproximateCandidates(Integer.parseInt(bounds[2]));
+                    }
+                    if (DerpyManager.getApproximateEpsilon() <= 0 || DerpyManager.getApproximateEpsilon() >= 1
+                            || DerpyManager.getApproximateDelta() <= 0 || DerpyManager.getApproximateDelta() >= 1
+                            || DerpyManager.getApproximateCandidates() < 1) {
+                        DerpyLogger.error("Argument must be an error, a chance and a candidate count! (i.e. \"--approximate 0.0001,0.01,16\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be an error, a chance and a candidate count! (i.e. \"--approximate 0.0001,0.01,16\")");
+                }
+            } else if (args[i].equals("-merge")) {
+                try {
+                    DerpyManager.getMergeInputs().add(args[++i]);
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a dictionary file! (i.e. \"-merge a.dict\")");
+                }
+            } else if (args[i].equals("--inspect")) {
+                try {
+                    DerpyManager.setInspectInput(args[++i]);
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a dictionary file! (i.e. \"--inspect a.dict\")");
+                }
+            } else if (args[i].equals("--inspect-top")) {
+                try {
+                    DerpyManager.setInspectTop(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getInspectTop() < 0) {
+                        DerpyLogger.error("Argument must be a positive integer! (i.e. \"--inspect-top 20\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer! (i.e. \"--inspect-top 20\")");
+                }
+            } else if (args[i].equals("--suggest")) {
+                try {
+                    String context = args[++i];
+                    DerpyManager.setSuggestContext(context.equals("-") ? DerpyReader.STDIN : context);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    DerpyLogger.error("Argument must be some text! (i.e. \"--suggest 'once upon a'\")");
+                }
+            } else if (args[i].equals("--suggest-count")) {
+                try {
+                    DerpyManager.setSuggestCount(Integer.parseInt(args[++i]));
+                    if (DerpyManager.getSuggestCount() < 1) {
+                        DerpyLogger.error("Argument must be a positive integer! (i.e. \"--suggest-count 5\")");
+                    }
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a positive integer! (i.e. \"--suggest-count 5\")");
+                }
+            } else if (args[i].equals("-include")) {
+                try {
+                    DerpyManager.getIncludes().add(args[++i]);
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a pattern! (i.e. \"-include '*.txt'\")");
+                }
+            } else if (args[i].equals("-exclude")) {
+                try {
+                    DerpyManager.getExcludes().add(args[++i]);
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a pattern! (i.e. \"-exclude '*.log'\")");
+                }
+            } else if (args[i].equals("-stats")) {
+                try {
+                    String file = args[++i];
+                    if (file.startsWith("-") && !file.equals("-")) {
+                        DerpyLogger.error("Argument must be a file or a hyphen! (i.e. \"-stats stats.json\")");
+                    }
+                    DerpyManager.setStatsFile(file);
+                } catch (Exception e) {
+                    DerpyLogger.error("Argument must be a file or a hyphen! (i.e. \"-stats stats.json\")");
+                }
             } else {
                 // Assume a relative path if not absolute
-                if (isFilenameValid(args[i])) {
+                if (DerpyWalker.isPattern(args[i]) && !args[i].toLowerCase().equals("*stdin*")) {
+                    DerpyManager.getSources().add(args[i]);
+                    DerpyManager.getWeights().add(1);
+                } else if (isFilenameValid(args[i])) {
                     if (new File(args[i]).exists()) {
                         DerpyManager.getSources().add(new File(args[i]).getAbsolutePath());
                         DerpyManager.getWeights().add(1);
                     }
                 } else if (args[i].toLowerCase().equals("*stdin*")) {
-                    if (DerpyManager.stdin == null) {
-                        BufferedReader derpReader = new BufferedReader(new InputStreamReader(System.in));
-                        StringBuilder builder = new StringBuilder();
-                        String aux = "";
-
-                        try {
-                            while ((aux = derpReader.readLine()) != null) {
-                                builder.append(aux);
-                                builder.append('\n');
-                            }
-                        } catch (IOException ex) {
-                            Logger.getLogger(Boot.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                        DerpyManager.stdin = builder.toString();
-                    }
-                    DerpyManager.getSources().add("*STDIN*");
+                    DerpyManager.getSources().add(DerpyReader.STDIN);
                     DerpyManager.getWeights().add(1);
                 } else {
 
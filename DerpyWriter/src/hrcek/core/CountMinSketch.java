@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+/**
+ * This class is a Count-Min Sketch. It counts keys in a fixed table of depth
+ * rows of width counters. The estimate of a key is never below its real count
+ * and is above it by at most epsilon times the total count with a chance of
+ * 1 - delta.
+ *
+ * Adding uses conservative update: only the counters that hold the current
+ * estimate are raised, which keeps the estimates closer to the real counts.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final int[][] table;
+    private long total = 0;
+
+    /**
+     * Creates a sketch for the given error bounds.
+     *
+     * @param epsilon Error of an estimate as a fraction of the total count.
+     * @param delta Chance that an estimate is off by more than epsilon.
+     */
+    public CountMinSketch(double epsilon, double delta) {
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("Epsilon and delta must be between 0 and 1");
+        }
+        width = (int) Math.ceil(Math.E / epsilon);
+        depth = (int) Math.ceil(Math.log(1 / delta));
+        table = new int[depth][width];
+    }
+
+    private int bucket(long key, int row) {
+        long h = key * 0x9E3779B97F4A7C15L + row * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return (int) ((h >>> 1) % width);
+    }
+
+    /**
+     * Adds to the count of a key.
+     *
+     * @param key The key.
+     * @param count Amount to add.
+     * @return The new estimate of the key.
+     */
+    public synchronized int add(long key, int count) {
+        int[] buckets = new int[depth];
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            buckets[row] = bucket(key, row);
+            estimate = Math.min(estimate, table[row][buckets[row]]);
+        }
+
+        int updated = (int) Math.min(Integer.MAX_VALUE, (long) estimate + count);
+        for (int row = 0; row < depth; row++) {
+            if (table[row][buckets[row]] < updated) {
+                table[row][buckets[row]] = updated;
+            }
+        }
+        total += count;
+        return updated;
+    }
+
+    /**
+     * Gets the estimated count of a key.
+     *
+     * @param key The key.
+     * @return The estimate.
+     */
+    public synchronized int estimate(long key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, table[row][bucket(key, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Gets the total of everything added.
+     *
+     * @return The total count.
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the number of counters in each row.
+     *
+     * @return Width of the table.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of bytes used by the counters.
+     *
+     * @return Size of the table.
+     */
+    public long getBytes() {
+        return 4L * width * depth;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is the thin client for the DerpyDaemon. It sends the parsed
+ * command line to the daemon and copies the story it gets back to standard
+ * output or the output file.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyClient {
+
+    /**
+     * Sends the current settings to a daemon and writes out the story.
+     *
+     * @param port Port the daemon is listening on.
+     * @return The exit code for the CLI.
+     */
+    public static int run(int port) {
+        if (DerpyManager.getSources().contains(DerpyReader.STDIN)) {
+            DerpyLogger.error("Standard input can not be used as a source with --client");
+        }
+        if (DerpyManager.getOutputDictionary() != null) {
+            DerpyLogger.alert("Dictionaries are not saved in client mode. Ignoring -s...");
+        }
+
+        DerpyDaemon.Request request = DerpyDaemon.Request.fromManager();
+        try {
+            request.token = DerpyDaemon.readToken(port);
+        } catch (IOException e) {
+            System.err.println("[ERROR] No daemon token found at " + DerpyDaemon.getTokenFile(port) + ". Is a daemon running on port " + port + "?");
+            return 1;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            request.writeTo(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String status = in.readLine();
+            if (status == null || !status.equals("OK")) {
+                System.err.println("[ERROR] " + (status == null ? "Daemon closed the connection" : status.substring(status.indexOf(' ') + 1)));
+                return 1;
+            }
+
+            OutputStream target = DerpyManager.getOutputFile() == null ? System.out : new FileOutputStream(DerpyManager.getOutputFile());
+            Writer out = new OutputStreamWriter(target, StandardCharsets.UTF_8);
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+            if (target != System.out) {
+                out.close();
+            }
+            return 0;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not talk to daemon on port " + port + ": " + e.getLocalizedMessage());
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,516 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import static hrcek.core.Boot.printIfVerbose;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class keeps dictionaries loaded between runs. The CLI started with
+ * --client sends its parsed arguments here and the story is streamed back, so
+ * short runs do not pay for starting the JVM and reading the dictionary every
+ * time.
+ *
+ * The daemon only listens on the loopback address, and every request must
+ * carry the token the daemon wrote to a file only its user can read (see
+ * getTokenFile), so other users on the machine can not make it read their
+ * choice of files. A model read with some
+ * accuracy also serves requests for lower accuracies, and stories are written
+ * at the same time as each other. Each model is loaded by one thread while
+ * requests for other models are served, and only the most recently used
+ * models are kept.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyDaemon {
+
+    static final int MAGIC = 0x44455250;
+    static final int VERSION = 3;
+    public static final int DEFAULT_MAX_MODELS = 4;
+    public static final int MAX_OUTPUT = 1000000;
+
+    private final LinkedHashMap<String, Model> models = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxModels = DEFAULT_MAX_MODELS;
+    private final Object lock = new Object();
+    private ServerSocket serverSocket;
+    private String token;
+    private ExecutorService executor;
+
+    /**
+     * Starts listening for clients. A new token is written to the token file
+     * for the port before any client is accepted.
+     *
+     * @param port Port to listen on.
+     * @throws IOException If the port can not be bound or the token can not
+     * be written.
+     */
+    public void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        token = writeToken(getTokenFile(serverSocket.getLocalPort()));
+        executor = Executors.newCachedThreadPool();
+
+        Thread acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket client = serverSocket.accept();
+                        executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                handle(client);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            DerpyLogger.warning(e, "Could not accept client.");
+                        }
+                    }
+                }
+            }
+        }, "derpy-daemon");
+        acceptor.start();
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        executor.shutdown();
+        getTokenFile(serverSocket.getLocalPort()).delete();
+    }
+
+    /**
+     * Gets the file the token of the daemon on a port is kept in. It is in
+     * the home directory of the user, so clients run by the same user find
+     * it.
+     *
+     * @param port Port of the daemon.
+     * @return The token file.
+     */
+    public static File getTokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"), ".derpywriter"), "daemon-" + port + ".token");
+    }
+
+    /**
+     * Writes a new random token to a file that only the user can read.
+     */
+    private static String writeToken(File file) throws IOException {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+
+        file.getParentFile().mkdirs();
+        Files.deleteIfExists(file.toPath());
+        try {
+            Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file.toPath());
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(file.toPath(), hex.toString().getBytes(StandardCharsets.UTF_8));
+        file.deleteOnExit();
+        return hex.toString();
+    }
+
+    /**
+     * Reads the token of the daemon on a port.
+     *
+     * @param port Port of the daemon.
+     * @return The token.
+     * @throws IOException If there is no token for the port.
+     */
+    static String readToken(int port) throws IOException {
+        return new String(Files.readAllBytes(getTokenFile(port).toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sets how many models are kept loaded. When there are more, the least
+     * recently used are dropped.
+     *
+     * @param maxModels Most models to keep.
+     */
+    public void setMaxModels(int maxModels) {
+        synchronized (lock) {
+            this.maxModels = maxModels;
+            dropOver();
+        }
+    }
+
+    /**
+     * Loads or reads the dictionary for a request ahead of time so the first
+     * client does not have to wait for it.
+     *
+     * @param request Request describing the dictionary.
+     */
+    public void preload(Request request) throws IOException, InterruptedException {
+        getModel(request);
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Writer out = new OutputStreamWriter(new BufferedOutputStream(socket.getOutputStream()), StandardCharsets.UTF_8);
+
+            Request request;
+            try {
+                request = Request.readFrom(in);
+            } catch (IOException e) {
+                out.write("ERR " + e.getMessage() + "\n");
+                out.flush();
+                return;
+            }
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), request.token.getBytes(StandardCharsets.UTF_8))) {
+                out.write("ERR Wrong token\n");
+                out.flush();
+                return;
+            }
+            if (request.output < 0 || request.output > MAX_OUTPUT) {
+                out.write("ERR The word count must be between 0 and " + MAX_OUTPUT + "\n");
+                out.flush();
+                return;
+            }
+
+            Dictionary dictionary;
+            try {
+                dictionary = getModel(request);
+            } catch (IOException e) {
+                out.write("ERR Could not load dictionary: " + e.getMessage() + "\n");
+                out.flush();
+                return;
+            }
+            if (dictionary.getSize() == 0) {
+                out.write("ERR Dictionary is empty\n");
+                out.flush();
+                return;
+            }
+            out.write("OK\n");
+
+            //A dictionary read from sources may have been read for a higher accuracy than asked for
+            int writeAccuracy = request.inputDictionary == null ? request.accuracy : dictionary.getAccuracy();
+            if (request.accuracyWrite != 0 && request.accuracyWrite < writeAccuracy) {
+                writeAccuracy = request.accuracyWrite;
+            }
+
+            DerpyWriter dw = new DerpyWriter(dictionary);
+            dw.setAccuracy(writeAccuracy);
+            dw.setIgnorePunctuation(request.ignorePunctuation);
+            dw.setStrictMode(request.strictMode);
+
+            StoryStream stream = new StoryStream(out, request.formatText, request.outputFormat);
+            stream.writeHeader();
+            dw.generateStory(request.output, stream);
+            stream.writeFooter();
+        } catch (StoryStream.ClientGoneException | IOException e) {
+            DerpyLogger.warning(e, "Client went away while writing.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the dictionary for a request, loading or reading it if it is not
+     * already held. Models are kept by the files they are made from, and each
+     * is checked against the sizes and modification times of those files,
+     * with directories and patterns expanded, so a changed file is read again
+     * and the old model replaced. A model read from sources with a higher
+     * accuracy than asked for is used as it is, while one with a lower
+     * accuracy is read again and replaced.
+     *
+     * Only one thread loads each model. Requests for other models are served
+     * while it loads.
+     */
+    private Dictionary getModel(Request request) throws IOException, InterruptedException {
+        String key = request.getKey();
+        Model model;
+        synchronized (lock) {
+            model = models.get(key);
+            if (model == null) {
+                model = new Model();
+                models.put(key, model);
+                dropOver();
+            }
+        }
+
+        List<String> files = new ArrayList<>();
+        List<Integer> fileWeights = new ArrayList<>();
+        request.expand(files, fileWeights);
+        String version = request.getVersion(files);
+        synchronized (model) {
+            Dictionary dictionary = model.dictionary;
+            if (dictionary != null && version.equals(model.version)
+                    && (request.inputDictionary != null || dictionary.getAccuracy() >= request.accuracy)) {
+                return dictionary;
+            }
+
+            printIfVerbose("Building model " + key + " with accuracy " + request.accuracy + "...");
+            dictionary = DerpyManager.createDictionary();
+            dictionary.setAccuracy(request.accuracy);
+            if (request.inputDictionary != null) {
+                DerpyManager.loadDictionary(dictionary, request.inputDictionary);
+            }
+            if (!files.isEmpty()) {
+                DerpyManager.readSources(dictionary, files, fileWeights, request.threadable, request.inputFormat, null);
+            }
+            DerpyManager.freezeDictionary(dictionary);
+
+            model.dictionary = dictionary;
+            model.version = version;
+            return dictionary;
+        }
+    }
+
+    /**
+     * Drops the least recently used models while there are more than the
+     * most to keep. Clients already writing from a dropped model keep using
+     * it until they are done. Must be called holding the lock.
+     */
+    private void dropOver() {
+        Iterator<String> keys = models.keySet().iterator();
+        while (models.size() > maxModels && keys.hasNext()) {
+            String key = keys.next();
+            keys.remove();
+            printIfVerbose("Dropped model " + key + "...");
+        }
+    }
+
+    private static class Model {
+
+        Dictionary dictionary;
+        String version;
+    }
+
+    /**
+     * Everything the daemon needs from the parsed command line.
+     */
+    public static class Request {
+
+        String token = "";
+        String inputDictionary;
+        List<String> sources = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        boolean threadable = true;
+        int inputFormat = DerpyFormatter.DERPY_FORMAT_TEXT;
+        int outputFormat = DerpyFormatter.DERPY_FORMAT_PLAINTEXT;
+        int accuracy = 1;
+        int accuracyWrite = 0;
+        int output = 100;
+        boolean ignorePunctuation = false;
+        boolean strictMode = false;
+        boolean formatText = true;
+
+        /**
+         * Creates a request from the settings in the DerpyManager. Patterns
+         * are made absolute, since the daemon runs in another directory.
+         *
+         * @return The request.
+         */
+        public static Request fromManager() {
+            Request request = new Request();
+            if (DerpyManager.getInputDictionary() != null) {
+                request.inputDictionary = new File(DerpyManager.getInputDictionary()).getAbsolutePath();
+            }
+            for (String source : DerpyManager.getSources()) {
+                request.sources.add(DerpyWalker.isPattern(source) ? new File(source).getAbsolutePath() : source);
+            }
+            request.weights.addAll(DerpyManager.getWeights());
+            request.includes.addAll(DerpyManager.getIncludes());
+            request.excludes.addAll(DerpyManager.getExcludes());
+            request.threadable = DerpyManager.isThreadable();
+            request.inputFormat = DerpyManager.getFileInputFormat();
+            request.outputFormat = DerpyManager.getFileOutputFormat();
+            request.accuracy = DerpyManager.getAccuracy();
+            request.accuracyWrite = DerpyManager.getAccuracy_write();
+            request.output = DerpyManager.getOutput();
+            request.ignorePunctuation = DerpyManager.isIgnorePunctuation();
+            request.strictMode = DerpyManager.inStrictMode();
+            request.formatText = DerpyManager.isFormatText();
+            return request;
+        }
+
+        /**
+         * Gets what the model is made from: the input format, the dictionary,
+         * the sources with their weights and the include and exclude
+         * patterns.
+         */
+        String getKey() {
+            StringBuilder key = new StringBuilder();
+            key.append(inputFormat);
+            if (inputDictionary != null) {
+                key.append("|l:").append(inputDictionary);
+            }
+            for (int i = 0; i < sources.size(); i++) {
+                key.append("|s:").append(sources.get(i)).append('x').append(weights.get(i));
+            }
+            for (String include : includes) {
+                key.append("|i:").append(include);
+            }
+            for (String exclude : excludes) {
+                key.append("|e:").append(exclude);
+            }
+            return key.toString();
+        }
+
+        /**
+         * Expands the directories and patterns of the sources with the
+         * include and exclude patterns of the request.
+         *
+         * @param files List the files are added to.
+         * @param fileWeights List the weights of the files are added to.
+         */
+        void expand(List<String> files, List<Integer> fileWeights) throws InterruptedException {
+            DerpyWalker.expand(sources, weights, files, fileWeights, includes, excludes, Math.max(DerpyManager.getThreads(), 2));
+        }
+
+        /**
+         * Gets the size and modification time of every file the model is
+         * made from, so files added, removed or changed inside directories
+         * and patterns change the version.
+         *
+         * @param files The expanded sources.
+         */
+        String getVersion(List<String> files) {
+            StringBuilder version = new StringBuilder();
+            if (inputDictionary != null) {
+                appendFile(version, inputDictionary);
+            }
+            for (String file : files) {
+                appendFile(version, file);
+            }
+            return version.toString();
+        }
+
+        private static void appendFile(StringBuilder version, String location) {
+            File file = new File(location);
+            version.append(location).append('@').append(file.lastModified()).append(':').append(file.length()).append('|');
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(token);
+            out.writeBoolean(inputDictionary != null);
+            if (inputDictionary != null) {
+                out.writeUTF(inputDictionary);
+            }
+            out.writeInt(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                out.writeUTF(sources.get(i));
+                out.writeInt(weights.get(i));
+            }
+            writeList(out, includes);
+            writeList(out, excludes);
+            out.writeBoolean(threadable);
+            out.writeInt(inputFormat);
+            out.writeInt(outputFormat);
+            out.writeInt(accuracy);
+            out.writeInt(accuracyWrite);
+            out.writeInt(output);
+            out.writeBoolean(ignorePunctuation);
+            out.writeBoolean(strictMode);
+            out.writeBoolean(formatText);
+            out.flush();
+        }
+
+        static Request readFrom(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a derpy client");
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Client version does not match daemon");
+            }
+
+            Request request = new Request();
+            request.token = in.readUTF();
+            if (in.readBoolean()) {
+                request.inputDictionary = in.readUTF();
+            }
+            int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                request.sources.add(in.readUTF());
+                request.weights.add(in.readInt());
+            }
+            readList(in, request.includes);
+            readList(in, request.excludes);
+            request.threadable = in.readBoolean();
+            request.inputFormat = in.readInt();
+            request.outputFormat = in.readInt();
+            request.accuracy = in.readInt();
+            request.accuracyWrite = in.readInt();
+            request.output = in.readInt();
+            request.ignorePunctuation = in.readBoolean();
+            request.strictMode = in.readBoolean();
+            request.formatText = in.readBoolean();
+            return request;
+        }
+
+        private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+            out.writeInt(list.size());
+            for (String item : list) {
+                out.writeUTF(item);
+            }
+        }
+
+        private static void readList(DataInputStream in, List<String> list) throws IOException {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                list.add(in.readUTF());
+            }
+        }
+    }
+
+}
@@ -23,6 +23,8 @@
  */
 package hrcek.core;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -41,6 +43,22 @@ public class DerpyFormatter {
     public static final int DERPY_FORMAT_SOL = 5;
     public static final int DERPY_FORMAT_TEXT = 6;
 
+    /**
+     * Gets the output format for a name given on the command line.
+     *
+     * @param name Name of the format (i.e. "txt" or "html").
+     * @return The format or -1 if the name is unknown.
+     */
+    public static int parseOutputFormat(String name) {
+        name = name.toLowerCase();
+        if (name.equals("plaintext") || name.equals("text") || name.equals("txt")) {
+            return DERPY_FORMAT_PLAINTEXT;
+        } else if (name.equals("html") || name.equals("htm")) {
+            return DERPY_FORMAT_HTML;
+        }
+        return -1;
+    }
+
     /**
      * This method capitalizes words.
      *
@@ -85,18 +103,7 @@ public class DerpyFormatter {
             text = removeNewLines(text);
             text = removeSpaces(text);
         } else if (format == DERPY_FORMAT_HTML) {
-            text = unformatHtmlSpecialCharacters(text);
-            text = standardizeQuotes(text);
-            text = spaceColon(text);
-            text = spaceComma(text);
-            text = spaceExclaim(text);
-            text = spacePeriods(text);
-            text = spaceSemiColon(text);
-            text = spaceParens(text);
-            text = spaceQuotes(text);
-            text = spaceTags(text);
-            text = removeNewLines(text);
-            text = removeSpaces(text);
+            text = unformatText(stripHtml(text), DERPY_FORMAT_PLAINTEXT);
         } else if (format == DERPY_FORMAT_C) {
 
         } else if (format == DERPY_FORMAT_CPP) {
@@ -146,179 +153,232 @@ public class DerpyFormatter {
 
     public static List<String> formatParagraphs(List<String> paragraphs, int format) {
         List<String> formattedParagraphs = new ArrayList<>();
+
+        if (getHeader(format) != null) {
+            formattedParagraphs.add(getHeader(format));
+        }
         for (String paragraph : paragraphs) {
-            paragraph = unspaceColon(paragraph);
-            paragraph = unspaceSemicolon(paragraph);
-            paragraph = unspacePeriods(paragraph);
-            paragraph = unspaceComma(paragraph);
-            paragraph = unspaceExclaim(paragraph);
-            paragraph = unspaceQuestion(paragraph);
-            formattedParagraphs.add(paragraph);
+            formattedParagraphs.add(formatParagraph(paragraph, format));
+        }
+        if (getFooter(format) != null) {
+            formattedParagraphs.add(getFooter(format));
         }
 
-        if (format == DERPY_FORMAT_PLAINTEXT) {
-            return formattedParagraphs;
-        } else if (format == DERPY_FORMAT_HTML) {
-            List<String> temp = new ArrayList<>();
+        return formattedParagraphs;
+    }
 
-            temp.add(0, "<html><head><title>Derpy Output</title></head><body>");
-            for (String paragraph : formattedParagraphs) {
-                String tmpstr = replaceHtmlSpecialCharacters(paragraph);
-                temp.add("<p>" + tmpstr + "</p>");
-            }
-            temp.add("</body></html>");
+    /**
+     * This method formats a single paragraph. Headers and footers are not
+     * added. This is used when paragraphs are sent out as they are written.
+     *
+     * @param paragraph Paragraph to be formatted.
+     * @param format The output format.
+     * @return The formatted paragraph.
+     */
+    public static String formatParagraph(String paragraph, int format) {
+        paragraph = unspaceColon(paragraph);
+        paragraph = unspaceSemicolon(paragraph);
+        paragraph = unspacePeriods(paragraph);
+        paragraph = unspaceComma(paragraph);
+        paragraph = unspaceExclaim(paragraph);
+        paragraph = unspaceQuestion(paragraph);
+
+        if (format == DERPY_FORMAT_HTML) {
+            return "<p>" + replaceHtmlSpecialCharacters(paragraph) + "</p>";
+        }
+
+        return paragraph;
+    }
 
-            return temp;
+    /**
+     * Gets the text that goes before the paragraphs for a format.
+     *
+     * @param format The output format.
+     * @return The header or null if the format has none.
+     */
+    public static String getHeader(int format) {
+        if (format == DERPY_FORMAT_HTML) {
+            return "<html><head><title>Derpy Output</title></head><body>";
         }
+        return null;
+    }
 
-        return formattedParagraphs;
+    /**
+     * Gets the text that goes after the paragraphs for a format.
+     *
+     * @param format The output format.
+     * @return The footer or null if the format has none.
+     */
+    public static String getFooter(int format) {
+        if (format == DERPY_FORMAT_HTML) {
+            return "</body></html>";
+        }
+        return null;
     }
 
     public static String replaceHtmlSpecialCharacters(String in) {
-        String out = in.replaceAll("'", "&#39;");
-        out = out.replaceAll("’", "&#8217;");
-        out = out.replaceAll("‘", "&#8216;");
-        out = out.replaceAll("“", "&#8220;");
-        out = out.replaceAll("”", "&#8221;");
-        out = out.replaceAll("\"", "&#34;");
+        String out = in.replace("'", "&#39;");
+        out = out.replace("’", "&#8217;");
+        out = out.replace("‘", "&#8216;");
+        out = out.replace("“", "&#8220;");
+        out = out.replace("”", "&#8221;");
+        out = out.replace("\"", "&#34;");
         return out;
     }
 
     public static String unformatHtmlSpecialCharacters(String in) {
-        String out = in.replaceAll("&#39;", "'");
-        out = out.replaceAll("&#8217;", "’");
-        out = out.replaceAll("&#8216;", "‘");
-        out = out.replaceAll("&#8220;", "“");
-        out = out.replaceAll("&#8221;", "”");
-        out = out.replaceAll("&#34;", "\"");
+        String out = in.replace("&#39;", "'");
+        out = out.replace("&#8217;", "’");
+        out = out.replace("&#8216;", "‘");
+        out = out.replace("&#8220;", "“");
+        out = out.replace("&#8221;", "”");
+        out = out.replace("&#34;", "\"");
         return out;
     }
 
+    /**
+     * Removes the markup from HTML, leaving the text. Tags, comments, scripts
+     * and styles are dropped and entities are decoded.
+     *
+     * @see HtmlTokenizer
+     * @param in The HTML.
+     * @return The text of the HTML.
+     */
+    public static String stripHtml(String in) {
+        StringBuilder out = new StringBuilder(in.length());
+        char[] buffer = new char[4096];
+        try (HtmlTokenizer tokenizer = new HtmlTokenizer(new StringReader(in))) {
+            int read;
+            while ((read = tokenizer.read(buffer)) > 0) {
+                out.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            //A string reader does not throw.
+        }
+        return out.toString();
+    }
+
     public static String standardizeQuotes(String in) {
-        String out = in.replaceAll("’", "'");
-        out = out.replaceAll("‘", "'");
-        out = out.replaceAll("“", "\"");
-        out = out.replaceAll("”", "\"");
+        String out = in.replace("’", "'");
+        out = out.replace("‘", "'");
+        out = out.replace("“", "\"");
+        out = out.replace("”", "\"");
         return out;
     }
 
     public static String unspacePeriods(String in) {
-        String out = in.replaceAll(" \\.", ".");
+        String out = in.replace(" .", ".");
         return out;
     }
 
     public static String spacePeriods(String in) {
-        String out = in.replaceAll("\\.", " . ");
+        String out = in.replace(".", " . ");
         return out;
     }
 
     public static String unspaceQuestion(String in) {
-        String out = in.replaceAll(" \\?", "?");
+        String out = in.replace(" ?", "?");
         return out;
     }
 
     public static String spaceQuestion(String in) {
-        String out = in.replaceAll("\\?", " ? ");
+        String out = in.replace("?", " ? ");
         return out;
     }
 
     public static String unspaceComma(String in) {
-        String out = in.replaceAll(" \\,", ",");
+        String out = in.replace(" ,", ",");
         return out;
     }
 
     public static String spaceComma(String in) {
-        String out = in.replaceAll("\\,", " , ");
+        String out = in.replace(",", " , ");
         return out;
     }
 
     public static String unspaceExclaim(String in) {
-        String out = in.replaceAll(" !", "!");
+        String out = in.replace(" !", "!");
         return out;
     }
 
     public static String spaceExclaim(String in) {
-        String out = in.replaceAll("!", " ! ");
+        String out = in.replace("!", " ! ");
         return out;
     }
 
     public static String unspaceSemicolon(String in) {
-        String out = in.replaceAll(" ;", ";");
+        String out = in.replace(" ;", ";");
         return out;
     }
 
     public static String spaceSemiColon(String in) {
-        String out = in.replaceAll(";", " ; ");
+        String out = in.replace(";", " ; ");
         return out;
     }
 
     public static String unspaceColon(String in) {
-        String out = in.replaceAll(" :", ":");
+        String out = in.replace(" :", ":");
         return out;
     }
 
     public static String spaceColon(String in) {
-        String out = in.replaceAll(":", " : ");
+        String out = in.replace(":", " : ");
         return out;
     }
 
     public static String removeSpaces(String in) {
-        String out = in.replaceAll("  ", " ");
-        out = in.replaceAll("  ", " ");
-        out = in.replaceAll("  ", " ");
-        out = in.replaceAll("  ", " ");
-        out = in.replaceAll("  ", " ");
+        String out = in.replace("  ", " ");
         return out;
     }
 
     public static String removeNewLines(String in) {
-        String out = in.replaceAll("\n", " ");
+        String out = in.replace("\n", " ");
         out = removeSpaces(out);
         return out;
     }
 
     public static String removeTabs(String in) {
-        String out = in.replaceAll("\t", " ");
+        String out = in.replace("\t", " ");
         out = removeSpaces(out);
         return out;
     }
 
     public static String removeParens(String in) {
-        String out = in.replaceAll("\\(", "");
-        out = out.replaceAll("\\)", "");
+        String out = in.replace("(", "");
+        out = out.replace(")", "");
         return out;
     }
 
     public static String spaceParens(String in) {
-        String out = in.replaceAll("\\(", " ( ");
-        out = out.replaceAll("\\)", " ) ");
+        String out = in.replace("(", " ( ");
+        out = out.replace(")", " ) ");
         return out;
     }
 
     public static String unspaceParens(String in) {
-        String out = in.replaceAll("\\( ", "(");
-        out = out.replaceAll(" \\)", ")");
+        String out = in.replace("( ", "(");
+        out = out.replace(" )", ")");
         return out;
     }
 
     public static String removeQuotes(String in) {
-        String out = in.replaceAll("\"", "");
+        String out = in.replace("\"", "");
         return out;
     }
 
     public static String spaceQuotes(String in) {
-        String out = in.replaceAll("\"", " \" ");
+        String out = in.replace("\"", " \" ");
         return out;
     }
 
     public static String unspaceQuotes(String in) {
-        String out = in.replaceAll(" \" ", "\"");
+        String out = in.replace(" \" ", "\"");
         return out;
     }
 
     public static String spaceTags(String in) {
-        String out = in.replaceAll(">", "> ");
-        out = out.replaceAll("<", " <");
+        String out = in.replace(">", "> ");
+        out = out.replace("<", " <");
         return out;
     }
 
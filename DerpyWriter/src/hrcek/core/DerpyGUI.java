@@ -33,9 +33,14 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.text.NumberFormat;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JButton;
@@ -46,9 +51,11 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
@@ -64,6 +71,12 @@ public class DerpyGUI extends JFrame {
     JPanel settingsPanel;
     JPanel aboutPanel;
 
+    JButton readButton;
+    JButton writeButton;
+    JButton cancelButton;
+    JProgressBar progressBar;
+    SwingWorker<Void, ?> worker;
+
     public DerpyGUI() {
 
         final JTextArea outputText = new JTextArea(openingOutputText());
@@ -96,27 +109,21 @@ public class DerpyGUI extends JFrame {
             }
         });
 
-        JButton readButton = new JButton("Read");
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setString("Idle");
+
+        readButton = new JButton("Read");
+        writeButton = new JButton("Write");
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+
         readButton.addActionListener(new ActionListener() {
 
             @Override
             public void actionPerformed(ActionEvent e) {
                 if (DerpyManager.checkIfHasWritingSource()) {
-                    try {
-                        if (DerpyManager.getDictionary() == null && DerpyManager.getInputDictionary() == null) {
-                            DerpyManager.setDictionary(new Dictionary());
-                        } else if (DerpyManager.getDictionary() != null && DerpyManager.getInputDictionary() == null) {
-                            //Prompt to use same dictionary
-                        } else if (DerpyManager.getInputDictionary() != null) {
-                            DerpyManager.loadDictionary();
-                        }
-                        DerpyManager.setWordAccuracy();
-
-                        DerpyManager.readSources();
-                        DerpyManager.checkIfRequestedAccuracyIsWithinAcceptableBounds();
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(DerpyGUI.class.getName()).log(Level.SEVERE, null, ex);
-                    }
+                    startWorker(new ReadWorker(), "Reading...");
                 } else {
                     JOptionPane.showMessageDialog(null, "You must use at least one source file!");
                 }
@@ -124,22 +131,34 @@ public class DerpyGUI extends JFrame {
             }
         });
 
-        JButton writeButton = new JButton("Write");
         writeButton.addActionListener(new ActionListener() {
 
             @Override
             public void actionPerformed(ActionEvent e) {
                 if (DerpyManager.getDictionary() != null) {
-                    outputText.setText(DerpyManager.write());
+                    outputText.setText("");
+                    startWorker(new WriteWorker(outputText), "Writing...");
                 } else {
                     JOptionPane.showMessageDialog(null, "Dictionary is empty! Read material or load a dictionary to write!");
                 }
             }
         });
 
+        cancelButton.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (worker != null) {
+                    worker.cancel(true);
+                }
+            }
+        });
+
         controlPanel.add(addSourceButton);
         controlPanel.add(readButton);
         controlPanel.add(writeButton);
+        controlPanel.add(cancelButton);
+        controlPanel.add(progressBar);
 
         //Control Area
         outputPanel = new JPanel(new GridLayout(1, 1));
@@ -240,6 +259,148 @@ public class DerpyGUI extends JFrame {
 
     }
 
+    /**
+     * Runs a worker in the background. The read and write buttons are disabled
+     * until it is done.
+     *
+     * @param newWorker The worker to run.
+     * @param msg Message shown on the progress bar.
+     */
+    private void startWorker(SwingWorker<Void, ?> newWorker, String msg) {
+        worker = newWorker;
+        readButton.setEnabled(false);
+        writeButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        progressBar.setValue(0);
+        progressBar.setString(msg);
+
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName())) {
+                    progressBar.setValue((Integer) evt.getNewValue());
+                    progressBar.setString(null);
+                } else if ("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.DONE) {
+                    readButton.setEnabled(true);
+                    writeButton.setEnabled(true);
+                    cancelButton.setEnabled(false);
+                    progressBar.setString(((SwingWorker) evt.getSource()).isCancelled() ? "Cancelled" : "Done");
+                }
+            }
+        });
+        worker.execute();
+    }
+
+    /**
+     * Reads the sources off of the event dispatch thread.
+     */
+    private static class ReadWorker extends SwingWorker<Void, Void> {
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            if (DerpyManager.getDictionary() == null && DerpyManager.getInputDictionary() == null) {
+                DerpyManager.setDictionary(DerpyManager.createDictionary());
+            } else if (DerpyManager.getDictionary() != null && DerpyManager.getInputDictionary() == null) {
+                //Prompt to use same dictionary
+            } else if (DerpyManager.getInputDictionary() != null) {
+                if (DerpyManager.getDictionary() == null) {
+                    DerpyManager.setDictionary(DerpyManager.createDictionary());
+                }
+                DerpyManager.loadDictionary();
+            }
+            DerpyManager.setWordAccuracy();
+
+            DerpyManager.readSources(DerpyManager.getDictionary(), DerpyManager.getSources(), DerpyManager.getWeights(), DerpyManager.isThreadable(), new DerpyManager.ProgressListener() {
+
+                @Override
+                public void progress(int done, int total) {
+                    setProgress(done * 100 / total);
+                }
+            });
+            DerpyManager.freezeDictionary(DerpyManager.getDictionary());
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (CancellationException ex) {
+                //Cancelled by the user
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(DerpyGUI.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes a story off of the event dispatch thread. Paragraphs are added to
+     * the output as they are finished instead of all at once.
+     */
+    private static class WriteWorker extends SwingWorker<Void, String> {
+
+        private final JTextArea outputText;
+
+        WriteWorker(JTextArea outputText) {
+            this.outputText = outputText;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            final int count = DerpyManager.getOutput();
+            final int format = DerpyManager.getFileOutputFormat();
+            final boolean formatText = DerpyManager.isFormatText();
+
+            if (formatText && DerpyFormatter.getHeader(format) != null) {
+                publish(DerpyFormatter.getHeader(format) + "\n");
+            }
+
+            DerpyWriter dw = DerpyManager.createWriter(DerpyManager.getDictionary());
+            dw.generateStory(count, new DerpyWriter.ParagraphListener() {
+
+                int written = 0;
+
+                @Override
+                public void paragraphWritten(String paragraph) {
+                    if (isCancelled()) {
+                        throw new CancellationException();
+                    }
+                    publish((formatText ? DerpyFormatter.formatParagraph(paragraph, format) : paragraph) + "\n\n");
+
+                    written += paragraph.split(" ").length;
+                    if (count > 0) {
+                        setProgress(Math.min(100, written * 100 / count));
+                    }
+                }
+            });
+
+            if (formatText && DerpyFormatter.getFooter(format) != null) {
+                publish(DerpyFormatter.getFooter(format) + "\n");
+            }
+            setProgress(100);
+            return null;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            for (String chunk : chunks) {
+                outputText.append(chunk);
+            }
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (CancellationException ex) {
+                //Cancelled by the user
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(DerpyGUI.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
     private static String openingOutputText() {
         String msg;
 
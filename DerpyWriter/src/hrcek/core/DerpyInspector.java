@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * This class reports what a saved dictionary holds and how much heap it would
+ * take to load. The file is read one word at a time, so dictionaries far too
+ * big to load can be inspected.
+ *
+ * Heap sizes are estimates for a 64 bit JVM with compressed references, with
+ * the words as they are after loading (not frozen). Names of words after are
+ * counted as their own strings, which is an upper bound since names are shared
+ * within each block of words in the file.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyInspector {
+
+    public static final int DEFAULT_TOP = 20;
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final long WORD_BYTES = align(HEADER + 4 * REFERENCE + 4);
+    private static final long PUNCTUATION_BYTES = align(HEADER + 5 * REFERENCE + 8);
+    private static final long LIST_BYTES = align(HEADER + REFERENCE + 8);
+    private static final long MAP_BYTES = align(HEADER + 4 * REFERENCE + 16);
+    private static final long NODE_BYTES = align(HEADER + 3 * REFERENCE + 4);
+    private static final long INTEGER_BYTES = align(HEADER + 4);
+
+    private final int top;
+
+    private int accuracy;
+    private long fileBytes;
+    private long words;
+    private long tokens;
+    private long[] entries = new long[0];
+    private long[] counts = new long[0];
+    private long[] singles = new long[0];
+    private long deadEnds;
+
+    private long wordBytes;
+    private long mapBytes;
+    private long entryBytes;
+    private long successorNameBytes;
+    private long sentenceLengthBytes;
+    private long indexBytes;
+
+    private final Map<String, long[]> punctuation = new TreeMap<>();
+    private final PriorityQueue<Heavy> heaviest;
+
+    /**
+     * Creates an inspector.
+     *
+     * @param top How many of the heaviest words to list.
+     */
+    public DerpyInspector(int top) {
+        this.top = top;
+        this.heaviest = new PriorityQueue<>(Math.max(1, top), Heavy.BY_ENTRIES);
+    }
+
+    /**
+     * Reads through a saved dictionary, adding up everything in it.
+     *
+     * @param location Location of the dictionary.
+     * @throws IOException If the dictionary can not be read.
+     */
+    public void inspect(String location) throws IOException {
+        fileBytes = new File(location).length();
+        try (DerpyMerger.WordStream stream = new DerpyMerger.WordStream(location)) {
+            accuracy = stream.getAccuracy();
+            Word word;
+            while ((word = stream.next()) != null) {
+                add(word);
+            }
+        }
+
+        indexBytes += MAP_BYTES + align(16 + REFERENCE * tableSize(words));
+        indexBytes += align(16 + REFERENCE * words) + align(16 + 4 * words); //Word list and birth epochs
+    }
+
+    private void add(Word word) {
+        words++;
+        tokens += word.getRarity();
+        int distances = word.getAccuracy();
+        grow(distances);
+
+        wordBytes += (word instanceof Punctuation ? PUNCTUATION_BYTES : WORD_BYTES) + stringBytes(word.getName());
+        mapBytes += LIST_BYTES + align(16 + REFERENCE * distances);
+        indexBytes += NODE_BYTES + (words > 127 ? INTEGER_BYTES : 0);
+
+        long successors = 0;
+        for (int i = 0; i < distances; i++) {
+            Map<String, Integer> after = word.getWordsAfter(i);
+            entries[i] += after.size();
+            successors += after.size();
+            mapBytes += MAP_BYTES;
+            if (!after.isEmpty()) {
+                mapBytes += align(16 + REFERENCE * tableSize(after.size()));
+            } else if (i == 0) {
+                deadEnds++;
+            }
+            for (Map.Entry<String, Integer> entry : after.entrySet()) {
+                int count = entry.getValue();
+                counts[i] += count;
+                if (count == 1) {
+                    singles[i]++;
+                }
+                entryBytes += NODE_BYTES + (count > 127 ? INTEGER_BYTES : 0);
+                successorNameBytes += stringBytes(entry.getKey());
+            }
+        }
+
+        if (word instanceof Punctuation) {
+            List<Integer> lengths = ((Punctuation) word).getSentenceLengths();
+            long[] stats = new long[]{word.getRarity(), lengths.size(), 0, 0};
+            for (int length : lengths) {
+                stats[2] += length;
+                stats[3] = Math.max(stats[3], length);
+                if (length > 127) {
+                    sentenceLengthBytes += INTEGER_BYTES;
+                }
+            }
+            sentenceLengthBytes += LIST_BYTES + align(16 + REFERENCE * lengths.size());
+            punctuation.put(word.getName(), stats);
+        }
+
+        if (top > 0) {
+            heaviest.add(new Heavy(word.getName(), word.getRarity(), successors));
+            if (heaviest.size() > top) {
+                heaviest.poll();
+            }
+        }
+    }
+
+    private void grow(int distances) {
+        if (distances > entries.length) {
+            entries = Arrays.copyOf(entries, distances);
+            counts = Arrays.copyOf(counts, distances);
+            singles = Arrays.copyOf(singles, distances);
+        }
+    }
+
+    /**
+     * Gets the report of everything read.
+     *
+     * @return The report as text.
+     */
+    public String getReport() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("File size:          %,d bytes%n", fileBytes));
+        out.append(String.format("Accuracy:           %d%n", accuracy));
+        out.append(String.format("Words:              %,d%n", words));
+        out.append(String.format("Tokens:             %,d%n", tokens));
+        out.append(String.format("Dead ends:          %,d (no words after)%n", deadEnds));
+
+        out.append(String.format("%nDistance  %15s  %17s  %10s%n", "Transitions", "Total count", "Count 1"));
+        long allEntries = 0;
+        long allSingles = 0;
+        for (int i = 0; i < entries.length; i++) {
+            out.append(String.format("%8d  %,15d  %,17d  %9.1f%%%n", i, entries[i], counts[i], percent(singles[i], entries[i])));
+            allEntries += entries[i];
+            allSingles += singles[i];
+        }
+        out.append(String.format("%8s  %,15d  %17s  %9.1f%%%n", "all", allEntries, "", percent(allSingles, allEntries)));
+
+        if (!punctuation.isEmpty()) {
+            out.append(String.format("%nPunctuation  %12s  %12s  %12s  %8s%n", "Uses", "Sentences", "Avg length", "Longest"));
+            for (Map.Entry<String, long[]> entry : punctuation.entrySet()) {
+                long[] stats = entry.getValue();
+                out.append(String.format("%11s  %,12d  %,12d  %12.1f  %,8d%n", entry.getKey(), stats[0], stats[1],
+                        stats[1] == 0 ? 0.0 : (double) stats[2] / stats[1], stats[3]));
+            }
+        }
+
+        if (!heaviest.isEmpty()) {
+            List<Heavy> list = new ArrayList<>(heaviest);
+            Collections.sort(list, Collections.reverseOrder(Heavy.BY_ENTRIES));
+            out.append(String.format("%nHeaviest words     %15s  %12s%n", "Transitions", "Uses"));
+            for (Heavy heavy : list) {
+                out.append(String.format("%-18s %,15d  %,12d%n", heavy.name, heavy.entries, heavy.rarity));
+            }
+        }
+
+        long total = wordBytes + mapBytes + entryBytes + successorNameBytes + sentenceLengthBytes + indexBytes;
+        out.append(String.format("%nEstimated heap      %15s%n", "Bytes"));
+        out.append(String.format("Words and names     %,15d%n", wordBytes));
+        out.append(String.format("Words after maps    %,15d%n", mapBytes));
+        out.append(String.format("Map entries         %,15d%n", entryBytes));
+        out.append(String.format("Words after names   %,15d (at most)%n", successorNameBytes));
+        out.append(String.format("Sentence lengths    %,15d%n", sentenceLengthBytes));
+        out.append(String.format("Dictionary index    %,15d%n", indexBytes));
+        out.append(String.format("Total               %,15d%n", total));
+        return out.toString();
+    }
+
+    /**
+     * Estimates the heap a word takes while reading, before anything follows
+     * it, including its place in the index of the dictionary.
+     *
+     * @param word The word.
+     * @return The estimated size in bytes.
+     */
+    static long estimateWordBytes(Word word) {
+        int distances = word.getAccuracy();
+        return (word instanceof Punctuation ? PUNCTUATION_BYTES : WORD_BYTES) + stringBytes(word.getName())
+                + LIST_BYTES + align(16 + REFERENCE * distances) + distances * MAP_BYTES
+                + NODE_BYTES + INTEGER_BYTES + 2 * REFERENCE + 4;
+    }
+
+    /**
+     * Estimates the heap one entry in the words after a word takes while
+     * reading. The name is shared with the word it names.
+     *
+     * @return The estimated size in bytes.
+     */
+    static long estimateEntryBytes() {
+        return NODE_BYTES + 2 * REFERENCE;
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
+    private static long stringBytes(String s) {
+        return align(HEADER + REFERENCE + 4) + align(16 + 2L * s.length());
+    }
+
+    private static long tableSize(long size) {
+        long capacity = 1;
+        while (capacity * 3 / 4 < size) {
+            capacity <<= 1;
+        }
+        return Math.max(16, capacity);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * A word and how many words after it holds.
+     */
+    private static class Heavy {
+
+        static final Comparator<Heavy> BY_ENTRIES = new Comparator<Heavy>() {
+
+            @Override
+            public int compare(Heavy a, Heavy b) {
+                return Long.compare(a.entries, b.entries);
+            }
+        };
+
+        final String name;
+        final long rarity;
+        final long entries;
+
+        Heavy(String name, long rarity, long entries) {
+            this.name = name;
+            this.rarity = rarity;
+            this.entries = entries;
+        }
+    }
+}
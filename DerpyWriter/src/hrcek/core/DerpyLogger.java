@@ -63,6 +63,28 @@ public class DerpyLogger {
         }
     }
 
+    /**
+     * Prints a warning whether or not debug mode is on. This is for problems
+     * that change what the run does, such as an option being ignored or a
+     * source being left out. The stack trace is only printed in debug mode.
+     *
+     * @param msg The warning.
+     */
+    public static synchronized void alert(String msg) {
+        alert(null, msg);
+    }
+
+    public static synchronized void alert(Exception e, String msg) {
+        if (e == null) {
+            System.err.println("[WARNING] " + msg);
+        } else {
+            System.err.println("[WARNING] " + msg + " " + e.getLocalizedMessage());
+            if (isInDebugMode()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public static void error(String msg) {
         error(null, msg);
     }
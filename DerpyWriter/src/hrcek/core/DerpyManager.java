@@ -28,6 +28,7 @@ import static hrcek.core.Boot.printIfVerbose;
 import static hrcek.core.Boot.showUsage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,10 +37,26 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  *
@@ -49,6 +66,13 @@ public class DerpyManager {
 
     public static List<String> sources = new ArrayList<>();
     public static List<Integer> weights = new ArrayList<>();
+    public static List<String> mergeInputs = new ArrayList<>();
+    public static String inspectInput = null;
+    public static int inspectTop = DerpyInspector.DEFAULT_TOP;
+    public static String suggestContext = null;
+    public static int suggestCount = DerpySuggester.DEFAULT_COUNT;
+    public static List<String> includes = new ArrayList<>();
+    public static List<String> excludes = new ArrayList<>();
     public static int accuracy = 1;
     public static int accuracy_write = 0;
     public static int dictionary_accuracy = 0;
@@ -56,7 +80,22 @@ public class DerpyManager {
     public static String outputFile = null;
     public static String inputDictionary = null;
     public static String outputDictionary = null;
+    public static boolean incremental = false;
+    public static int checkpointSeconds = 0;
+    public static boolean resume = false;
+    public static boolean offHeap = false;
+    public static String offHeapDirectory = null;
+    public static int vocabularyLimit = 0;
+    public static long heapBudget = 0;
+    public static String spillDirectory = null;
+    public static int cacheSize = Dictionary.DEFAULT_CACHE_SIZE;
+    public static double approximateEpsilon = 0;
+    public static double approximateDelta = 0.01;
+    public static int approximateCandidates = ApproximateDictionary.DEFAULT_CANDIDATES;
     public static int threads = 1;
+    public static int readThreads = 0;
+    public static int normalizeThreads = 0;
+    public static int mapThreads = 1;
     public static boolean ignorePunctuation = false;
     public static boolean write = true;
     public static boolean VERBOSE = false;
@@ -66,11 +105,26 @@ public class DerpyManager {
     public static int fileOutputFormat = DerpyFormatter.DERPY_FORMAT_PLAINTEXT;
     public static int fileInputFormat = DerpyFormatter.DERPY_FORMAT_TEXT;
 
-    public static String stdin;
+    public static String statsFile = null;
+    public static int servePort = 0;
+    public static int daemonPort = 0;
+    public static int daemonModels = DerpyDaemon.DEFAULT_MAX_MODELS;
+    public static String registryDirectory = null;
+    public static long registryBudget = 0;
+    public static int clientPort = 0;
 
     private static boolean hasBeenRead = false;
+    private static boolean outputMerged = false;
 
     private static Dictionary dictionary;
+    private static SourceManifest manifest;
+    private static DerpyRegistry registry;
+
+    private static final DerpyMetrics metrics = new DerpyMetrics();
+    private static final DerpyStats stats = new DerpyStats();
+    public static final String METRICS_NAME = "hrcek.core:type=DerpyMetrics";
+    public static final long METRICS_DELAY_MILLIS = 1000;
+    public static final int DEFAULT_CHECKPOINT_SECONDS = 60;
 
     //TODO:
     //  Add more methods
@@ -83,6 +137,50 @@ public class DerpyManager {
         DerpyManager.sources = sources;
     }
 
+    public static List<String> getMergeInputs() {
+        return mergeInputs;
+    }
+
+    public static String getInspectInput() {
+        return inspectInput;
+    }
+
+    public static void setInspectInput(String inspectInput) {
+        DerpyManager.inspectInput = inspectInput;
+    }
+
+    public static int getInspectTop() {
+        return inspectTop;
+    }
+
+    public static void setInspectTop(int inspectTop) {
+        DerpyManager.inspectTop = inspectTop;
+    }
+
+    public static String getSuggestContext() {
+        return suggestContext;
+    }
+
+    public static void setSuggestContext(String suggestContext) {
+        DerpyManager.suggestContext = suggestContext;
+    }
+
+    public static int getSuggestCount() {
+        return suggestCount;
+    }
+
+    public static void setSuggestCount(int suggestCount) {
+        DerpyManager.suggestCount = suggestCount;
+    }
+
+    public static List<String> getIncludes() {
+        return includes;
+    }
+
+    public static List<String> getExcludes() {
+        return excludes;
+    }
+
     public static boolean isHasBeenRead() {
         return hasBeenRead;
     }
@@ -163,6 +261,48 @@ public class DerpyManager {
         DerpyManager.threads = threads;
     }
 
+    /**
+     * Gets the number of read threads for the reading pipeline. If it was not
+     * set, the thread count is used, or one per core if that is one.
+     *
+     * @return Read thread count.
+     */
+    public static int getReadThreads() {
+        if (readThreads > 0) {
+            return readThreads;
+        }
+        return threads > 1 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static void setReadThreads(int readThreads) {
+        DerpyManager.readThreads = readThreads;
+    }
+
+    /**
+     * Gets the number of normalize threads for the reading pipeline. If it was
+     * not set, the thread count is used, or one per core if that is one.
+     *
+     * @return Normalize thread count.
+     */
+    public static int getNormalizeThreads() {
+        if (normalizeThreads > 0) {
+            return normalizeThreads;
+        }
+        return threads > 1 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static void setNormalizeThreads(int normalizeThreads) {
+        DerpyManager.normalizeThreads = normalizeThreads;
+    }
+
+    public static int getMapThreads() {
+        return mapThreads;
+    }
+
+    public static void setMapThreads(int mapThreads) {
+        DerpyManager.mapThreads = mapThreads;
+    }
+
     public static boolean isIgnorePunctuation() {
         return ignorePunctuation;
     }
@@ -219,14 +359,278 @@ public class DerpyManager {
         DerpyManager.fileInputFormat = fileInputFormat;
     }
 
+    public static boolean isIncremental() {
+        return incremental;
+    }
+
+    public static void setIncremental(boolean incremental) {
+        DerpyManager.incremental = incremental;
+    }
+
+    public static int getCheckpointSeconds() {
+        return checkpointSeconds;
+    }
+
+    public static void setCheckpointSeconds(int checkpointSeconds) {
+        DerpyManager.checkpointSeconds = checkpointSeconds;
+    }
+
+    public static boolean isResume() {
+        return resume;
+    }
+
+    public static void setResume(boolean resume) {
+        DerpyManager.resume = resume;
+    }
+
+    public static boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public static void setOffHeap(boolean offHeap) {
+        DerpyManager.offHeap = offHeap;
+    }
+
+    public static String getOffHeapDirectory() {
+        return offHeapDirectory;
+    }
+
+    public static void setOffHeapDirectory(String offHeapDirectory) {
+        DerpyManager.offHeapDirectory = offHeapDirectory;
+    }
+
+    public static int getCacheSize() {
+        return cacheSize;
+    }
+
+    public static void setCacheSize(int cacheSize) {
+        DerpyManager.cacheSize = cacheSize;
+    }
+
+    public static int getVocabularyLimit() {
+        return vocabularyLimit;
+    }
+
+    public static void setVocabularyLimit(int vocabularyLimit) {
+        DerpyManager.vocabularyLimit = vocabularyLimit;
+    }
+
+    public static double getApproximateEpsilon() {
+        return approximateEpsilon;
+    }
+
+    public static void setApproximateEpsilon(double approximateEpsilon) {
+        DerpyManager.approximateEpsilon = approximateEpsilon;
+    }
+
+    public static double getApproximateDelta() {
+        return approximateDelta;
+    }
+
+    public static void setApproximateDelta(double approximateDelta) {
+        DerpyManager.approximateDelta = approximateDelta;
+    }
+
+    public static int getApproximateCandidates() {
+        return approximateCandidates;
+    }
+
+    public static void setApproximateCandidates(int approximateCandidates) {
+        DerpyManager.approximateCandidates = approximateCandidates;
+    }
+
+    /**
+     * Creates an empty dictionary. It counts approximately if --approximate
+     * was given, or is kept off heap if --off-heap or --off-heap-dir was given.
+     * Otherwise it is a normal dictionary with the --vocab-limit.
+     *
+     * @return The new dictionary.
+     */
+    public static Dictionary createDictionary() {
+        if (vocabularyLimit > 0 && (approximateEpsilon > 0 || offHeap || offHeapDirectory != null)) {
+            DerpyLogger.alert("The vocabulary limit only works with the normal dictionary and is ignored.");
+        }
+        if (heapBudget > 0 && (approximateEpsilon > 0 || offHeap || offHeapDirectory != null || vocabularyLimit > 0)) {
+            DerpyLogger.alert("The heap budget only works with the normal dictionary without a vocabulary limit and is ignored.");
+        }
+
+        Dictionary dictionary;
+        if (approximateEpsilon > 0) {
+            ApproximateDictionary approximate = new ApproximateDictionary(approximateEpsilon, approximateDelta, approximateCandidates);
+            printIfVerbose("Counting approximately with " + approximate.getSketchBytes() + " bytes of sketch and " + approximate.getCandidateBytes() + " bytes of candidates per distance...");
+            dictionary = approximate;
+        } else if (offHeapDirectory != null) {
+            dictionary = new OffHeapDictionary(new File(offHeapDirectory));
+        } else if (offHeap) {
+            dictionary = new OffHeapDictionary(null);
+        } else if (heapBudget > 0 && vocabularyLimit == 0) {
+            dictionary = new SpillingDictionary(Word.accuracyNumber, heapBudget, spillDirectory == null ? null : new File(spillDirectory));
+        } else {
+            dictionary = new Dictionary();
+            dictionary.setVocabularyLimit(vocabularyLimit);
+        }
+        dictionary.setAccuracy(accuracy);
+        dictionary.setCacheSize(cacheSize);
+        return dictionary;
+    }
+
     public static Dictionary getDictionary() {
         return dictionary;
     }
 
+    public static String getRegistryDirectory() {
+        return registryDirectory;
+    }
+
+    public static void setRegistryDirectory(String registryDirectory) {
+        DerpyManager.registryDirectory = registryDirectory;
+    }
+
+    public static long getRegistryBudget() {
+        return registryBudget;
+    }
+
+    public static void setRegistryBudget(long registryBudget) {
+        DerpyManager.registryBudget = registryBudget;
+    }
+
+    /**
+     * Gets the registry of the dictionaries in the --registry directory,
+     * making it the first time.
+     *
+     * @return The registry, or null if no directory was given.
+     */
+    public static synchronized DerpyRegistry getRegistry() {
+        if (registry == null && registryDirectory != null) {
+            registry = new DerpyRegistry(registryBudget);
+            int registered = registry.registerDirectory(new File(registryDirectory));
+            printIfVerbose("Registered " + registered + " dictionaries from " + registryDirectory + "...");
+        }
+        return registry;
+    }
+
+    public static long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public static void setHeapBudget(long heapBudget) {
+        DerpyManager.heapBudget = heapBudget;
+    }
+
+    public static String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public static void setSpillDirectory(String spillDirectory) {
+        DerpyManager.spillDirectory = spillDirectory;
+    }
+
     public static void setDictionary(Dictionary dictionary) {
         DerpyManager.dictionary = dictionary;
     }
 
+    public static String getStatsFile() {
+        return statsFile;
+    }
+
+    public static void setStatsFile(String statsFile) {
+        DerpyManager.statsFile = statsFile;
+    }
+
+    public static int getServePort() {
+        return servePort;
+    }
+
+    public static void setServePort(int servePort) {
+        DerpyManager.servePort = servePort;
+    }
+
+    public static int getDaemonPort() {
+        return daemonPort;
+    }
+
+    public static void setDaemonPort(int daemonPort) {
+        DerpyManager.daemonPort = daemonPort;
+    }
+
+    public static int getDaemonModels() {
+        return daemonModels;
+    }
+
+    public static void setDaemonModels(int daemonModels) {
+        DerpyManager.daemonModels = daemonModels;
+    }
+
+    public static int getClientPort() {
+        return clientPort;
+    }
+
+    public static void setClientPort(int clientPort) {
+        DerpyManager.clientPort = clientPort;
+    }
+
+    public static DerpyStats getStats() {
+        return stats;
+    }
+
+    public static DerpyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server so they can be
+     * watched over JMX. Calling this more than once does nothing.
+     */
+    public static void registerMetrics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (Exception e) {
+            DerpyLogger.warning(e, "Could not register metrics.");
+        }
+    }
+
+    /**
+     * Registers the metrics on a background thread after a delay. Starting the
+     * MBean server takes longer than a short run, so runs that finish within
+     * the delay never start it, while longer runs can still be watched.
+     */
+    public static void registerMetricsInBackground() {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(METRICS_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                registerMetrics();
+            }
+        }, "DerpyMetrics registration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates a writer for a dictionary using the current settings. The writer
+     * keeps its own copy of the settings.
+     *
+     * @param dictionary The dictionary to write from.
+     * @return A new writer.
+     */
+    public static DerpyWriter createWriter(Dictionary dictionary) {
+        DerpyWriter dw = new DerpyWriter(dictionary);
+        dw.setAccuracy(getWriteAccuracy(dictionary));
+        dw.setIgnorePunctuation(ignorePunctuation);
+        dw.setStrictMode(strictMode);
+        dw.setVerbose(VERBOSE);
+        return dw;
+    }
+
     public static String write() {
         printIfVerbose("Writing...");
 
@@ -234,8 +638,7 @@ public class DerpyManager {
             printIfVerbose("Ignoring logical punctuation...");
         }
 
-        DerpyWriter.setIgnorePunctuation(ignorePunctuation); //This will allow end punctuation to be placed close together. If this is not wanted, this value should be false...
-        DerpyWriter dw = new DerpyWriter(dictionary);
+        DerpyWriter dw = createWriter(dictionary);
         List<String> paragraphs = dw.generateStory(output);
 
         if (formatText) {
@@ -252,6 +655,7 @@ public class DerpyManager {
             for (String paragraph : paragraphs) {
                 allParagraphs += paragraph + "\n\n";
             }
+            metrics.addBytesWritten(allParagraphs.getBytes(StandardCharsets.UTF_8).length);
             return allParagraphs;
         } else {
             try {
@@ -262,6 +666,7 @@ public class DerpyManager {
                     writer.write("\n");
                 }
                 writer.close();
+                metrics.addBytesWritten(new File(outputFile).length());
                 printIfVerbose("Finished dumping story...");
             } catch (IOException ex) {
                 DerpyLogger.error(ex);
@@ -271,48 +676,387 @@ public class DerpyManager {
         }
     }
 
+    /**
+     * Starts serving stories from the dictionary over HTTP. The server keeps
+     * running after this returns.
+     *
+     * @return The running server.
+     */
+    public static DerpyServer serve() {
+        DerpyServer server = new DerpyServer(dictionary);
+        server.setRegistry(getRegistry());
+        try {
+            server.start(servePort);
+            printIfVerbose("Serving on http://localhost:" + server.getPort() + "/generate");
+        } catch (IOException ex) {
+            DerpyLogger.error(ex, "Could not start server on port " + servePort);
+        }
+        return server;
+    }
+
+    /**
+     * Starts the daemon used by --client runs. If sources or a dictionary were
+     * given, they are loaded before the daemon starts listening.
+     *
+     * @return The running daemon.
+     */
+    public static DerpyDaemon startDaemon() throws InterruptedException {
+        DerpyDaemon daemon = new DerpyDaemon();
+        daemon.setMaxModels(daemonModels);
+        try {
+            if (checkIfHasWritingSource()) {
+                daemon.preload(DerpyDaemon.Request.fromManager());
+            }
+            daemon.start(daemonPort);
+            printIfVerbose("Daemon listening on port " + daemon.getPort() + "...");
+        } catch (IOException ex) {
+            DerpyLogger.error(ex, "Could not start daemon on port " + daemonPort);
+        }
+        return daemon;
+    }
+
     /**
      * Read in any text file the DerpyWriter will use.
      *
      * @throws InterruptedException
      */
     public static void readSources() throws InterruptedException {
-        if (sources.size() != 0) {
-            printIfVerbose("Sources detected...");
-            if (threads > 1 && threadable) {
+        if ((incremental || checkpointSeconds > 0 || resume) && canReadIncrementally()) {
+            readSourcesIncrementally();
+        } else {
+            readSources(dictionary, sources, weights, threadable);
+        }
+    }
 
-                printIfVerbose("Distributing work over " + threads + " threads...");
+    private static boolean canReadIncrementally() {
+        if (outputDictionary == null) {
+            DerpyLogger.alert("Incremental reading and checkpoints need an output dictionary (-s) and are ignored.");
+        } else if (dictionary.getClass() != Dictionary.class || dictionary.getVocabularyLimit() > 0) {
+            DerpyLogger.alert("Incremental reading and checkpoints only work with the normal dictionary without a vocabulary limit and are ignored.");
+        } else if (!threadable) {
+            DerpyLogger.alert("Incremental reading and checkpoints do not work with weighted sources and are ignored.");
+        } else if (sources.contains(DerpyReader.STDIN)) {
+            DerpyLogger.alert("Incremental reading and checkpoints do not work with standard input and are ignored.");
+        } else {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads only the sources that are new or changed since the input
+     * dictionary was saved. The counts of sources that changed or are no
+     * longer listed are taken away first, using the source manifest saved
+     * with the input dictionary. Each source read is counted in its own
+     * dictionary, which is saved next to the output dictionary and then added
+     * to the dictionary. The new manifest is saved with the output dictionary.
+     *
+     * Without --incremental every source is read and added to the input
+     * dictionary, as a normal read does, but sources are still counted one at
+     * a time so the read can be checkpointed. With --resume, sources finished
+     * before the last checkpoint get their saved counts added instead of being
+     * read again.
+     *
+     * Since each source is counted on its own, no word is counted as following
+     * the last words of the source before it. A dictionary read this way has
+     * a few less counts at the boundaries between sources than one read with
+     * every source in one go, so the two are not the same.
+     *
+     * @throws InterruptedException
+     */
+    public static void readSourcesIncrementally() throws InterruptedException {
+        List<String> files = new ArrayList<>();
+        List<Integer> fileWeights = new ArrayList<>();
+        DerpyWalker.expand(sources, weights, files, fileWeights, includes, excludes, threads);
+
+        SourceManifest old = null;
+        File oldDirectory = null;
+        if (incremental && inputDictionary != null && dictionary.getSize() > 0) {
+            oldDirectory = SourceManifest.directoryFor(inputDictionary);
+            try {
+                old = SourceManifest.load(oldDirectory);
+            } catch (IOException e) {
+                DerpyLogger.alert(e, "Could not load the source manifest.");
+            }
+            if (old == null) {
+                printIfVerbose("The input dictionary has no source manifest, so every source is added to it...");
+            } else if (old.getFormat() != fileInputFormat) {
+                printIfVerbose("The input format changed, so every source is read again...");
+            }
+        }
+        File directory = SourceManifest.directoryFor(outputDictionary);
+        directory.mkdirs();
+        boolean sameDirectory = oldDirectory != null && oldDirectory.getAbsoluteFile().equals(directory.getAbsoluteFile());
+
+        manifest = new SourceManifest(fileInputFormat);
+        List<File> changed = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        Set<String> listed = new HashSet<>();
+        int unchanged = 0;
+        int removed = 0;
+        try {
+            for (String location : files) {
+                File file = new File(location).getAbsoluteFile();
+                if (!listed.add(file.getPath())) {
+                    continue;
+                }
+                SourceManifest.Entry entry = old == null ? null : old.get(file.getPath());
+                if (entry != null && old.getFormat() == fileInputFormat) {
+                    if (entry.matches(file)) {
+                        keepCounts(entry, oldDirectory, directory, sameDirectory);
+                        unchanged++;
+                        continue;
+                    }
+                    String hash = SourceManifest.hash(file);
+                    if (hash.equals(entry.hash)) {
+                        keepCounts(entry.touch(file), oldDirectory, directory, sameDirectory);
+                        unchanged++;
+                        continue;
+                    }
+                    subtractCounts(new File(oldDirectory, entry.counts));
+                    changed.add(file);
+                    hashes.add(hash);
+                } else {
+                    if (entry != null) {
+                        subtractCounts(new File(oldDirectory, entry.counts));
+                    }
+                    changed.add(file);
+                    hashes.add(SourceManifest.hash(file));
+                }
+            }
+            if (old != null) {
+                for (SourceManifest.Entry entry : old.getEntries()) {
+                    if (!listed.contains(entry.path)) {
+                        subtractCounts(new File(oldDirectory, entry.counts));
+                        removed++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            DerpyLogger.error(e, "Could not compare the sources with the source manifest!");
+        }
+        int unused = dictionary.removeUnusedWords();
+        printIfVerbose(unchanged + " sources unchanged, " + changed.size() + " to read, " + removed + " removed, " + unused + " words no longer used...");
+
+        if (resume) {
+            resumeFromCheckpoint(changed, hashes, directory);
+        }
+        readChangedSources(changed, hashes, directory);
+        printIfVerbose("Sources read...");
+    }
 
-                int count = sources.size() / threads;
-                if (sources.size() % threads != 0) {
-                    count++;
+    private static void keepCounts(SourceManifest.Entry entry, File oldDirectory, File directory, boolean sameDirectory) throws IOException {
+        if (!sameDirectory) {
+            Files.copy(new File(oldDirectory, entry.counts).toPath(), new File(directory, entry.counts).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        manifest.put(entry);
+    }
+
+    /**
+     * Takes the sources finished before the last checkpoint out of the sources
+     * to read, adding their saved counts to the dictionary instead. Sources
+     * that changed since the checkpoint are still read.
+     */
+    private static void resumeFromCheckpoint(List<File> changed, List<String> hashes, File directory) {
+        SourceManifest checkpoint = null;
+        try {
+            checkpoint = SourceManifest.loadCheckpoint(directory);
+        } catch (IOException e) {
+            DerpyLogger.alert(e, "Could not load the checkpoint.");
+        }
+        if (checkpoint == null || checkpoint.getFormat() != fileInputFormat) {
+            printIfVerbose("There is no checkpoint to resume from, so every source is read...");
+            return;
+        }
+
+        List<File> left = new ArrayList<>();
+        List<String> leftHashes = new ArrayList<>();
+        for (int i = 0; i < changed.size(); i++) {
+            File file = changed.get(i);
+            SourceManifest.Entry entry = checkpoint.get(file.getPath());
+            if (entry != null && entry.hash.equals(hashes.get(i)) && new File(directory, entry.counts).isFile()) {
+                try {
+                    mergeCounts(new File(directory, entry.counts));
+                } catch (IOException e) {
+                    DerpyLogger.error(e, "Could not add the saved counts of " + file + "! Run again without --resume.");
                 }
+                manifest.put(entry.touch(file));
+            } else {
+                left.add(file);
+                leftHashes.add(hashes.get(i));
+            }
+        }
+        printIfVerbose("Resumed " + (changed.size() - left.size()) + " sources from the checkpoint, " + left.size() + " left to read...");
+        changed.clear();
+        changed.addAll(left);
+        hashes.clear();
+        hashes.addAll(leftHashes);
+    }
 
-                for (int i = 0; i < count; i++) {
-                    Thread t[] = new Thread[threads];
-                    for (int o = 0; o < threads; o++) {
-                        if ((i * threads) + o >= sources.size()) {
-                            break;
-                        }
-                        DerpyReader derpyReader = new DerpyReader(dictionary, sources.get((i * threads) + o));
-                        t[o] = new Thread(derpyReader);
-                        t[o].run();
+    private static void mergeCounts(File counts) throws IOException {
+        try (DerpyMerger.WordStream words = new DerpyMerger.WordStream(counts.getPath())) {
+            Word word;
+            while ((word = words.next()) != null) {
+                dictionary.mergeWord(word);
+            }
+        }
+    }
+
+    private static void subtractCounts(File counts) throws IOException {
+        try (DerpyMerger.WordStream words = new DerpyMerger.WordStream(counts.getPath())) {
+            Word word;
+            while ((word = words.next()) != null) {
+                dictionary.subtractWord(word);
+            }
+        }
+    }
+
+    /**
+     * Reads each source into its own dictionary, several at a time, then saves
+     * its counts and adds them to the dictionary in the order listed. Only
+     * twice as many sources as there are threads are read ahead, so finished
+     * counts do not pile up behind a slow source. With checkpoints on, the
+     * sources finished so far are listed in a checkpoint every so often while
+     * the rest are read.
+     */
+    private static void readChangedSources(final List<File> changed, List<String> hashes, File directory) throws InterruptedException {
+        final int accuracy = dictionary.getAccuracy();
+        long checkpointNanos = (checkpointSeconds > 0 ? checkpointSeconds : resume ? DEFAULT_CHECKPOINT_SECONDS : 0) * 1000000000L;
+        long lastCheckpoint = System.nanoTime();
+        int readAhead = Math.max(1, threads) * 2;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Dictionary>> reads = new ArrayList<>();
+            for (int i = 0; i < Math.min(readAhead, changed.size()); i++) {
+                reads.add(submitRead(executor, changed.get(i), accuracy));
+            }
+
+            for (int i = 0; i < changed.size(); i++) {
+                if (i + readAhead < changed.size()) {
+                    reads.add(submitRead(executor, changed.get(i + readAhead), accuracy));
+                }
+
+                Dictionary counts;
+                try {
+                    counts = reads.get(i).get();
+                } catch (ExecutionException e) {
+                    DerpyLogger.alert(e, "Could not read " + changed.get(i) + ", so it is left out of the dictionary.");
+                    continue;
+                }
+                SourceManifest.Entry entry = SourceManifest.Entry.of(changed.get(i), hashes.get(i), counts.getWordCount());
+                try (DerpyMerger.WordWriter out = new DerpyMerger.WordWriter(new File(directory, entry.counts).getPath(), accuracy)) {
+                    for (Word word : counts.getWordList()) {
+                        out.write(word);
                     }
-                    for (int o = 0; o < threads; o++) {
-                        if ((i * threads) + o >= sources.size()) {
-                            break;
-                        }
-                        t[o].join();
+                } catch (IOException e) {
+                    DerpyLogger.alert(e, "Could not save the counts of " + changed.get(i) + ", so it is left out of the dictionary.");
+                    continue;
+                }
+                for (Word word : counts.getWordList()) {
+                    dictionary.mergeWord(word);
+                }
+                manifest.put(entry);
+                reads.set(i, null); //Lets the counts be collected
+
+                if (checkpointNanos > 0 && System.nanoTime() - lastCheckpoint >= checkpointNanos) {
+                    try {
+                        manifest.saveCheckpoint(directory);
+                        printIfVerbose("Checkpoint saved after " + (i + 1) + " of " + changed.size() + " sources...");
+                    } catch (IOException e) {
+                        DerpyLogger.alert(e, "Could not save a checkpoint.");
                     }
+                    lastCheckpoint = System.nanoTime();
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                printIfVerbose("Sources read...");
+    private static Future<Dictionary> submitRead(ExecutorService executor, final File file, final int accuracy) {
+        return executor.submit(new Callable<Dictionary>() {
+
+            @Override
+            public Dictionary call() throws IOException {
+                Dictionary counts = new Dictionary(accuracy);
+                new DerpyReader(counts, file.getPath()).read();
+                return counts;
+            }
+        });
+    }
+
+    /**
+     * Read a list of sources into a dictionary.
+     *
+     * @param dictionary Dictionary the sources are added to.
+     * @param sources Locations of the sources.
+     * @param weights Weight of each source.
+     * @param threadable False if the sources are weighted.
+     * @throws InterruptedException
+     */
+    public static void readSources(Dictionary dictionary, List<String> sources, List<Integer> weights, boolean threadable) throws InterruptedException {
+        readSources(dictionary, sources, weights, threadable, null);
+    }
+
+    /**
+     * Read a list of sources into a dictionary. The listener is told each time
+     * a source is finished. Interrupting the thread stops the read between
+     * lines and throws an InterruptedException.
+     *
+     * @param dictionary Dictionary the sources are added to.
+     * @param sources Locations of the sources.
+     * @param weights Weight of each source.
+     * @param threadable False if the sources are weighted.
+     * @param listener Listener told about progress. May be null.
+     * @throws InterruptedException
+     */
+    public static void readSources(Dictionary dictionary, List<String> sources, List<Integer> weights, boolean threadable, ProgressListener listener) throws InterruptedException {
+        readSources(dictionary, sources, weights, threadable, fileInputFormat, listener);
+    }
+
+    /**
+     * Read a list of sources into a dictionary in the given input format,
+     * whatever the input format of the DerpyManager is.
+     *
+     * @param dictionary Dictionary the sources are added to.
+     * @param sources Locations of the sources.
+     * @param weights Weight of each source.
+     * @param threadable False if the sources are weighted.
+     * @param format One of the DerpyFormatter formats.
+     * @param listener Listener told about progress. May be null.
+     * @throws InterruptedException
+     */
+    public static void readSources(Dictionary dictionary, List<String> sources, List<Integer> weights, boolean threadable, int format, ProgressListener listener) throws InterruptedException {
+        if (sources.size() != 0) {
+            printIfVerbose("Sources detected...");
+
+            boolean needsWalk = false;
+            for (String source : sources) {
+                needsWalk |= !source.equals(DerpyReader.STDIN) && DerpyWalker.needsWalk(source);
+            }
+
+            if (needsWalk && !threadable) {
+                printIfVerbose("Expanding directories and patterns...");
+                List<String> expandedSources = new ArrayList<>();
+                List<Integer> expandedWeights = new ArrayList<>();
+                DerpyWalker.expand(sources, weights, expandedSources, expandedWeights, includes, excludes, threads);
+                sources = expandedSources;
+                weights = expandedWeights;
+                printIfVerbose(sources.size() + " files found...");
+            }
+
+            if (sources.isEmpty()) {
+                printIfVerbose("No files found...");
             } else if (!threadable) {
                 int largestWords = -1;
                 int largestWeight = -1;
                 for (int i = 0; i < sources.size(); i++) {
-                    Dictionary tmp = new Dictionary();
-                    new DerpyReader(tmp, sources.get(i)).run();
+                    Dictionary tmp = new Dictionary(1); //Only used to count words
+                    DerpyReader counter = new DerpyReader(tmp, sources.get(i));
+                    counter.setFormat(format);
+                    counter.run();
+                    checkInterrupted();
+                    progress(listener, i + 1, sources.size() * 2);
                     int tmpMax = tmp.getWordCount();
                     if (tmpMax > largestWords) {
                         largestWords = tmpMax;
@@ -322,38 +1066,125 @@ public class DerpyManager {
                 for (int i = 0; i < sources.size(); i++) {
                     int myWords = ((largestWords * weights.get(i)) / largestWeight);
                     DerpyReader derpyReader = new DerpyReader(dictionary, sources.get(i), myWords);
+                    derpyReader.setFormat(format);
                     derpyReader.run();
+                    checkInterrupted();
+                    progress(listener, sources.size() + i + 1, sources.size() * 2);
                 }
                 printIfVerbose("Sources read...");
             } else {
-                for (int i = 0; i < sources.size(); i++) {
-                    DerpyReader derpyReader = new DerpyReader(dictionary, sources.get(i));
-                    derpyReader.run();
+                DerpyPipeline pipeline = new DerpyPipeline(dictionary, getReadThreads(), getNormalizeThreads(), getMapThreads(), format);
+                printIfVerbose("Reading with " + pipeline.describe() + "...");
+
+                BlockingQueue<String> queue;
+                DerpyWalker walker = null;
+                if (needsWalk) {
+                    queue = new ArrayBlockingQueue<>(1024);
+                    printIfVerbose("Walking sources with " + Math.max(threads, 2) + " threads...");
+                    walker = new DerpyWalker(queue, includes, excludes, Math.max(threads, 2));
+                    walker.start(sources);
+                } else {
+                    queue = new LinkedBlockingQueue<>(sources);
+                    queue.add(DerpyWalker.END);
+                }
+
+                try {
+                    pipeline.run(queue, listener);
+                } finally {
+                    if (walker != null) {
+                        walker.stop();
+                    }
                 }
 
                 printIfVerbose("Sources read...");
             }
         }
+
+        if (dictionary instanceof SpillingDictionary) {
+            finishSpilling((SpillingDictionary) dictionary);
+        }
+    }
+
+    /**
+     * Merges the runs a spilling dictionary wrote while reading. When the
+     * dictionary is only read to be saved, the runs are merged straight into
+     * the output dictionary and nothing is loaded back. Otherwise the merged
+     * words are loaded back into the dictionary.
+     *
+     * @param spilling The dictionary that was read into.
+     */
+    private static void finishSpilling(SpillingDictionary spilling) {
+        if (spilling.getRunCount() == 0) {
+            return;
+        }
+        boolean saveOnly = spilling == dictionary && outputDictionary != null && !write && servePort == 0 && daemonPort == 0;
+        try {
+            printIfVerbose("Merging spilled runs...");
+            outputMerged = spilling.finishReading(saveOnly ? outputDictionary : null, !saveOnly);
+        } catch (IOException e) {
+            DerpyLogger.error(e, "Unable to merge the spilled runs!");
+        }
+    }
+
+    /**
+     * Freezes a dictionary once reading is finished. See Dictionary.freeze().
+     *
+     * @param dictionary Dictionary to freeze.
+     */
+    public static void freezeDictionary(Dictionary dictionary) {
+        printIfVerbose("Freezing dictionary...");
+        long bytes = dictionary.freeze();
+        printIfVerbose("Successor lists use about " + bytes + " bytes...");
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Reading was interrupted");
+        }
+    }
+
+    private static void progress(ProgressListener listener, int done, int total) {
+        if (listener != null) {
+            listener.progress(done, total);
+        }
+    }
+
+    /**
+     * Listener for the progress of long running work.
+     */
+    public interface ProgressListener {
+
+        void progress(int done, int total);
     }
 
     /**
      * Saves a local dictionary into file.
      */
     public static void saveDictionary() {
+        if (outputMerged) {
+            printIfVerbose("Dictionary was merged straight into " + outputDictionary + "...");
+            return;
+        }
         try {
+            long start = System.nanoTime();
             printIfVerbose("Dumping dictionary...");
-            if (inputDictionary != null) {
-                printIfVerbose("Returning accuracy to dictionary accuracy...");
-                Word.setAccuracyNumber(dictionary_accuracy);
-                dictionary.regenerateLastWords();
-            }
-            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(outputDictionary))));
-            oos.writeInt(Word.accuracyNumber);
+            File tmp = new File(outputDictionary + ".tmp"); //Moved over the dictionary once written, so a crash never leaves half a dictionary
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            oos.writeInt(dictionary.getAccuracy());
+            int written = 0;
             for (Word word : dictionary.getWordList()) {
                 oos.writeObject(word);
-                oos.flush();
+                if (++written % DerpyMerger.RESET_INTERVAL == 0) {
+                    oos.reset(); //Lets readers forget the words they have already read
+                }
             }
             oos.close();
+            Files.move(tmp.toPath(), new File(outputDictionary).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (manifest != null) {
+                manifest.save(SourceManifest.directoryFor(outputDictionary));
+            }
+            metrics.setSaveNanos(System.nanoTime() - start);
+            metrics.addBytesWritten(new File(outputDictionary).length());
             printIfVerbose("Dictionary dumped...");
         } catch (IOException e) {
             System.err.println("Unable to save file! Ignoring any changes made!");
@@ -361,29 +1192,76 @@ public class DerpyManager {
     }
 
     /**
-     * Method to load a file of words into a local dictionary
+     * Merges the dictionaries given with -merge into the output dictionary.
      */
-    public static void loadDictionary() {
+    public static void mergeDictionaries() {
+        if (outputDictionary == null) {
+            DerpyLogger.error("Merging requires an output dictionary! (i.e. \"-merge a.dict -merge b.dict -s out.dict\")");
+        }
+
         try {
-            printIfVerbose("Loading dictionary...");
+            long start = System.nanoTime();
+            DerpyMerger merger = new DerpyMerger(DerpyMerger.DEFAULT_RUN_WORDS, null);
+            long words = merger.merge(mergeInputs, outputDictionary);
+            metrics.setSaveNanos(System.nanoTime() - start);
+            printIfVerbose("Merged " + mergeInputs.size() + " dictionaries into " + words + " words...");
+        } catch (IOException e) {
+            DerpyLogger.error(e, "Unable to merge dictionaries!");
+        }
+    }
 
-            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(inputDictionary))));
-            dictionary_accuracy = accuracy = ois.readInt();
+    /**
+     * Prints a report of the dictionary given with --inspect. The dictionary is
+     * not loaded, so this works for dictionaries too big to load.
+     */
+    public static void inspectDictionary() {
+        try {
+            DerpyInspector inspector = new DerpyInspector(inspectTop);
+            inspector.inspect(inspectInput);
+            System.out.print(inspector.getReport());
+        } catch (IOException e) {
+            DerpyLogger.error(e, "Unable to inspect " + inspectInput + "!");
+        }
+    }
 
-            printIfVerbose("Dictionary accuracy read... " + accuracy);
-            printIfVerbose("Reading words...");
+    /**
+     * Prints the words most likely to come next after the text given with
+     * --suggest, one word and its chance per line. A hyphen reads the text from
+     * standard input, one line at a time, printing a blank line after the
+     * suggestions for each.
+     */
+    public static void suggest() {
+        long start = System.nanoTime();
+        DerpySuggester suggester = new DerpySuggester(dictionary, Math.max(DerpySuggester.DEFAULT_DEPTH, suggestCount));
+        printIfVerbose("Suggestions ready in " + (System.nanoTime() - start) / 1000000 + "ms...");
+
+        if (!suggestContext.equals(DerpyReader.STDIN)) {
+            for (DerpySuggester.Suggestion suggestion : suggester.suggest(suggestContext, fileInputFormat, suggestCount)) {
+                System.out.println(suggestion);
+            }
+            return;
+        }
 
-            boolean hasWords = true;
-            while (hasWords) {
-                try {
-                    dictionary.addWord((Word) ois.readObject());
-                } catch (Exception e) {
-                    printIfVerbose("Finished reading words...");
-                    printIfVerbose("Total word count: " + dictionary.getSize());
-                    hasWords = false;
+        try (BufferedReader in = new BufferedReader(DerpyReader.openReader(DerpyReader.STDIN))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                for (DerpySuggester.Suggestion suggestion : suggester.suggest(line, fileInputFormat, suggestCount)) {
+                    System.out.println(suggestion);
                 }
+                System.out.println();
+                System.out.flush();
             }
-            ois.close();
+        } catch (IOException e) {
+            DerpyLogger.error(e, "Unable to read from standard input!");
+        }
+    }
+
+    /**
+     * Method to load a file of words into a local dictionary
+     */
+    public static void loadDictionary() {
+        try {
+            dictionary_accuracy = accuracy = loadDictionary(dictionary, inputDictionary);
         } catch (IOException e) {
             DerpyLogger.warning(e, "Could not load dictionary.");
 
@@ -393,24 +1271,82 @@ public class DerpyManager {
         }
     }
 
-    public static void setWordAccuracy() {
-        printIfVerbose("Setting accuracy to " + accuracy + "...");
+    /**
+     * Method to load a dictionary file into a given dictionary. The dictionary
+     * takes the accuracy the file was saved with, so it must be empty unless it
+     * already has that accuracy.
+     *
+     * @param dictionary Dictionary the words are added to.
+     * @param location Location of the dictionary file.
+     * @return The accuracy the dictionary was saved with.
+     * @throws IOException If the file can not be read.
+     */
+    public static int loadDictionary(Dictionary dictionary, String location) throws IOException {
+        long start = System.nanoTime();
+        printIfVerbose("Loading dictionary...");
+
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(location))));
+        int savedAccuracy = ois.readInt();
+
+        printIfVerbose("Dictionary accuracy read... " + savedAccuracy);
+        try {
+            dictionary.setAccuracy(savedAccuracy);
+        } catch (IllegalStateException e) {
+            ois.close();
+            throw new IOException("The dictionary already has words with accuracy " + dictionary.getAccuracy() + ", but the file has accuracy " + savedAccuracy, e);
+        }
+        printIfVerbose("Reading words...");
+
+        boolean hasWords = true;
+        while (hasWords) {
+            try {
+                Word word = (Word) ois.readObject();
+                dictionary.addWord(word);
+                metrics.addTransitions(word.getTransitionCount());
+            } catch (Exception e) {
+                printIfVerbose("Finished reading words...");
+                printIfVerbose("Total word count: " + dictionary.getSize());
+                hasWords = false;
+            }
+        }
+        ois.close();
+        metrics.setLoadNanos(System.nanoTime() - start);
+        metrics.addBytesRead(new File(location).length());
 
-        Word.setAccuracyNumber(accuracy); //2-3 for songs, more for texts
-        dictionary.regenerateLastWords();
+        return savedAccuracy;
     }
 
-    public static void checkIfRequestedAccuracyIsWithinAcceptableBounds() {
-        if (Word.accuracyNumber > accuracy_write && accuracy_write != 0) {
-            printIfVerbose("Requested accuracy is within acceptable parameters...");
-            printIfVerbose("Setting accuracy to " + accuracy_write);
-            Word.setAccuracyNumber(accuracy_write);
-            dictionary.regenerateLastWords();
+    /**
+     * Gives the dictionary the requested accuracy. A dictionary that already
+     * holds words keeps the accuracy it was read with. Writers may still use a
+     * lower accuracy (see getWriteAccuracy).
+     */
+    public static void setWordAccuracy() {
+        if (dictionary.getSize() == 0) {
+            printIfVerbose("Setting accuracy to " + accuracy + "...");
+            dictionary.setAccuracy(accuracy); //2-3 for songs, more for texts
+        } else if (dictionary.getAccuracy() != accuracy) {
+            printIfVerbose("Keeping dictionary accuracy of " + dictionary.getAccuracy() + "...");
+        }
+    }
+
+    /**
+     * Gets the accuracy stories are written with. This is the requested
+     * accuracy if it is lower than the accuracy of the dictionary.
+     *
+     * @param dictionary The dictionary written from.
+     * @return The accuracy to write with.
+     */
+    public static int getWriteAccuracy(Dictionary dictionary) {
+        if (accuracy_write != 0 && accuracy_write < dictionary.getAccuracy()) {
+            return accuracy_write;
         }
+        return dictionary.getAccuracy();
     }
 
     public static boolean checkIfHasWritingSource() {
-        if (DerpyManager.getSources().size() < 1 && DerpyManager.getInputDictionary() == null) {
+        if (DerpyManager.getSources().size() < 1 && DerpyManager.getInputDictionary() == null
+                && (DerpyManager.getRegistryDirectory() == null || DerpyManager.getServePort() == 0)) {
             return false;
         }
         return true;
@@ -0,0 +1,303 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import static hrcek.core.Boot.printIfVerbose;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class merges saved dictionaries. Words with the same name are combined
+ * by adding their rarity, their words after counts and (for punctuation) their
+ * sentence lengths.
+ *
+ * Saved dictionaries are not in any order, so each one is first cut into runs
+ * of at most runWords words that are sorted by name and written to temporary
+ * files. All the runs are then merged at once, so only one word per run is in
+ * memory at a time.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyMerger {
+
+    public static final int DEFAULT_RUN_WORDS = 100000;
+
+    /**
+     * Object streams remember every object they have written or read. Resetting
+     * every so often keeps that from growing with the dictionary.
+     */
+    public static final int RESET_INTERVAL = 1024;
+
+    static final Comparator<Word> BY_NAME = new Comparator<Word>() {
+
+        @Override
+        public int compare(Word a, Word b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    private final int runWords;
+    private final File tempDirectory;
+
+    /**
+     * Creates a merger.
+     *
+     * @param runWords Most words held in memory while sorting a run.
+     * @param tempDirectory Directory for the runs. Null for the default
+     * temporary directory.
+     */
+    public DerpyMerger(int runWords, File tempDirectory) {
+        this.runWords = Math.max(1, runWords);
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Merges dictionary files into one.
+     *
+     * @param inputs Locations of the dictionaries.
+     * @param output Location of the merged dictionary.
+     * @return The number of words in the merged dictionary.
+     * @throws IOException If a dictionary can not be read or written.
+     */
+    public long merge(List<String> inputs, String output) throws IOException {
+        List<File> runs = new ArrayList<>();
+        int accuracy = Integer.MAX_VALUE;
+        try {
+            for (String input : inputs) {
+                printIfVerbose("Sorting " + input + "...");
+                accuracy = Math.min(accuracy, sortIntoRuns(input, runs));
+            }
+            printIfVerbose("Merging " + runs.size() + " runs at accuracy " + accuracy + "...");
+            return mergeRuns(runs, accuracy, output);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Cuts a dictionary into sorted runs. Words with the same name in a run are
+     * combined.
+     *
+     * @param input Location of the dictionary.
+     * @param runs List the run files are added to.
+     * @return The accuracy of the dictionary.
+     */
+    int sortIntoRuns(String input, List<File> runs) throws IOException {
+        try (WordStream words = new WordStream(input)) {
+            List<Word> buffer = new ArrayList<>();
+            Word word;
+            while ((word = words.next()) != null) {
+                buffer.add(word);
+                if (buffer.size() >= runWords) {
+                    runs.add(writeRun(buffer, words.getAccuracy()));
+                    buffer.clear();
+                }
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(buffer, words.getAccuracy()));
+            }
+            return words.getAccuracy();
+        }
+    }
+
+    /**
+     * Sorts words by name and writes them to a temporary run file.
+     *
+     * @param words The words. The list is sorted in place.
+     * @param accuracy Accuracy written to the run.
+     * @return The run file.
+     */
+    File writeRun(List<Word> words, int accuracy) throws IOException {
+        Collections.sort(words, BY_NAME);
+        File run = File.createTempFile("derpy-run", ".dict", tempDirectory);
+        run.deleteOnExit();
+
+        try (WordWriter out = new WordWriter(run.getPath(), accuracy)) {
+            Word pending = null;
+            for (Word word : words) {
+                if (pending != null && pending.getName().equals(word.getName())) {
+                    pending.mergeFrom(word);
+                } else {
+                    if (pending != null) {
+                        out.write(pending);
+                    }
+                    pending = word;
+                }
+            }
+            if (pending != null) {
+                out.write(pending);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges sorted runs into one dictionary. Words are cut down to the
+     * accuracy of the output, and the output is only replaced once it is
+     * completely written.
+     *
+     * @param runs The sorted runs.
+     * @param accuracy Accuracy written to the output.
+     * @param output Location of the output.
+     * @return The number of words written.
+     */
+    long mergeRuns(List<File> runs, int accuracy, String output) throws IOException {
+        PriorityQueue<WordStream> heads = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<WordStream>() {
+
+            @Override
+            public int compare(WordStream a, WordStream b) {
+                return BY_NAME.compare(a.peek(), b.peek());
+            }
+        });
+
+        long written = 0;
+        List<WordStream> streams = new ArrayList<>();
+        File tmp = new File(output + ".tmp");
+        try (WordWriter out = new WordWriter(tmp.getPath(), accuracy)) {
+            for (File run : runs) {
+                WordStream stream = new WordStream(run.getPath());
+                streams.add(stream);
+                if (stream.peek() != null) {
+                    heads.add(stream);
+                }
+            }
+
+            while (!heads.isEmpty()) {
+                WordStream stream = heads.poll();
+                Word word = stream.next();
+                while (!heads.isEmpty() && heads.peek().peek().getName().equals(word.getName())) {
+                    WordStream other = heads.poll();
+                    word.mergeFrom(other.next());
+                    if (other.peek() != null) {
+                        heads.add(other);
+                    }
+                }
+                if (stream.peek() != null) {
+                    heads.add(stream);
+                }
+
+                word.truncate(accuracy);
+                out.write(word);
+                written++;
+            }
+        } finally {
+            for (WordStream stream : streams) {
+                stream.close();
+            }
+        }
+        Files.move(tmp.toPath(), new File(output).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Reads the words of a saved dictionary one at a time.
+     */
+    static class WordStream implements Closeable {
+
+        private final ObjectInputStream in;
+        private final int accuracy;
+        private Word next;
+
+        WordStream(String location) throws IOException {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(location)));
+            accuracy = in.readInt();
+            next = read();
+        }
+
+        private Word read() throws IOException {
+            try {
+                return (Word) in.readObject();
+            } catch (EOFException e) {
+                return null;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        int getAccuracy() {
+            return accuracy;
+        }
+
+        Word peek() {
+            return next;
+        }
+
+        Word next() throws IOException {
+            Word word = next;
+            if (word != null) {
+                next = read();
+            }
+            return word;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes words in the saved dictionary format.
+     */
+    static class WordWriter implements Closeable {
+
+        private final ObjectOutputStream out;
+        private int count = 0;
+
+        WordWriter(String location, int accuracy) throws IOException {
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(location)));
+            out.writeInt(accuracy);
+        }
+
+        void write(Word word) throws IOException {
+            out.writeObject(word);
+            if (++count % RESET_INTERVAL == 0) {
+                out.reset();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class holds the live counters for reading and writing. One instance is
+ * kept by the DerpyManager and registered with the platform MBean server.
+ *
+ * The sampling latency histogram uses power of two buckets. Bucket i counts
+ * samples that took less than 2^i nanoseconds (and at least 2^(i-1)).
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyMetrics implements DerpyMetricsMBean {
+
+    public static final int HISTOGRAM_BUCKETS = 40;
+
+    private final AtomicLong tokensIngested = new AtomicLong();
+    private final AtomicLong filesCompleted = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong totalTransitions = new AtomicLong();
+    private final AtomicLong lastLoadNanos = new AtomicLong();
+    private final AtomicLong lastSaveNanos = new AtomicLong();
+    private final AtomicLong wordsGenerated = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+    private final AtomicLong deadEndFallbacks = new AtomicLong();
+    private final AtomicLong wordsEvicted = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicLong sampleNanos = new AtomicLong();
+    private final AtomicLong sampleMaxNanos = new AtomicLong();
+    private final AtomicLongArray sampleHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    public void addTokens(long count) {
+        tokensIngested.addAndGet(count);
+    }
+
+    public void addTransitions(long count) {
+        totalTransitions.addAndGet(count);
+    }
+
+    public void addBytesRead(long count) {
+        bytesRead.addAndGet(count);
+    }
+
+    public void addBytesWritten(long count) {
+        bytesWritten.addAndGet(count);
+    }
+
+    public void fileCompleted() {
+        filesCompleted.incrementAndGet();
+    }
+
+    public void setLoadNanos(long nanos) {
+        lastLoadNanos.set(nanos);
+    }
+
+    public void setSaveNanos(long nanos) {
+        lastSaveNanos.set(nanos);
+    }
+
+    public void addGeneration(long words, long nanos) {
+        wordsGenerated.addAndGet(words);
+        generationNanos.addAndGet(nanos);
+    }
+
+    public void deadEnd() {
+        deadEndFallbacks.incrementAndGet();
+    }
+
+    public void addEvictions(long count) {
+        wordsEvicted.addAndGet(count);
+    }
+
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Records how long picking a single word took.
+     *
+     * @param nanos Time spent sampling the word.
+     */
+    public void recordSample(long nanos) {
+        sampleCount.incrementAndGet();
+        sampleNanos.addAndGet(nanos);
+
+        long max = sampleMaxNanos.get();
+        while (nanos > max && !sampleMaxNanos.compareAndSet(max, nanos)) {
+            max = sampleMaxNanos.get();
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        sampleHistogram.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS - 1));
+    }
+
+    @Override
+    public long getTokensIngested() {
+        return tokensIngested.get();
+    }
+
+    @Override
+    public long getFilesCompleted() {
+        return filesCompleted.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public int getVocabularySize() {
+        Dictionary dictionary = DerpyManager.getDictionary();
+        if (dictionary == null) {
+            return 0;
+        }
+        return dictionary.getSize();
+    }
+
+    @Override
+    public long getTotalTransitions() {
+        return totalTransitions.get();
+    }
+
+    @Override
+    public long getLastLoadMillis() {
+        return lastLoadNanos.get() / 1000000;
+    }
+
+    @Override
+    public long getLastSaveMillis() {
+        return lastSaveNanos.get() / 1000000;
+    }
+
+    @Override
+    public long getWordsGenerated() {
+        return wordsGenerated.get();
+    }
+
+    /**
+     * Gets the words generated per second of time spent generating.
+     *
+     * @return Words per second.
+     */
+    @Override
+    public double getGenerationRate() {
+        long nanos = generationNanos.get();
+        if (nanos == 0) {
+            return 0;
+        }
+        return wordsGenerated.get() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getDeadEndFallbacks() {
+        return deadEndFallbacks.get();
+    }
+
+    @Override
+    public long getWordsEvicted() {
+        return wordsEvicted.get();
+    }
+
+    @Override
+    public long getDistributionCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getDistributionCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public double getDistributionCacheHitRate() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getSampleCount() {
+        return sampleCount.get();
+    }
+
+    @Override
+    public long getSampleLatencyMeanNanos() {
+        long count = sampleCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return sampleNanos.get() / count;
+    }
+
+    @Override
+    public long getSampleLatencyMaxNanos() {
+        return sampleMaxNanos.get();
+    }
+
+    @Override
+    public long getSampleLatencyP50Nanos() {
+        return getSampleLatencyPercentile(0.5);
+    }
+
+    @Override
+    public long getSampleLatencyP99Nanos() {
+        return getSampleLatencyPercentile(0.99);
+    }
+
+    @Override
+    public long[] getSampleLatencyHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = sampleHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Estimates a latency percentile from the histogram. The upper bound of the
+     * bucket holding the percentile is returned.
+     *
+     * @param percentile Value between 0 and 1.
+     * @return The estimated latency in nanoseconds.
+     */
+    public long getSampleLatencyPercentile(double percentile) {
+        long[] histogram = getSampleLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return sampleMaxNanos.get();
+    }
+
+    /**
+     * Clears the counters. The transition count describes the dictionary rather
+     * than the run, so it is kept.
+     */
+    @Override
+    public void reset() {
+        tokensIngested.set(0);
+        filesCompleted.set(0);
+        bytesRead.set(0);
+        bytesWritten.set(0);
+        lastLoadNanos.set(0);
+        lastSaveNanos.set(0);
+        wordsGenerated.set(0);
+        generationNanos.set(0);
+        deadEndFallbacks.set(0);
+        wordsEvicted.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        sampleCount.set(0);
+        sampleNanos.set(0);
+        sampleMaxNanos.set(0);
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            sampleHistogram.set(i, 0);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+/**
+ * Management interface for the derpy metrics. Everything here is read only so
+ * it can be watched from JConsole or any other JMX client while the reader and
+ * writer are running.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public interface DerpyMetricsMBean {
+
+    long getTokensIngested();
+
+    long getFilesCompleted();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    int getVocabularySize();
+
+    long getTotalTransitions();
+
+    long getLastLoadMillis();
+
+    long getLastSaveMillis();
+
+    long getWordsGenerated();
+
+    double getGenerationRate();
+
+    long getDeadEndFallbacks();
+
+    long getWordsEvicted();
+
+    long getDistributionCacheHits();
+
+    long getDistributionCacheMisses();
+
+    double getDistributionCacheHitRate();
+
+    long getSampleCount();
+
+    long getSampleLatencyMeanNanos();
+
+    long getSampleLatencyMaxNanos();
+
+    long getSampleLatencyP50Nanos();
+
+    long getSampleLatencyP99Nanos();
+
+    long[] getSampleLatencyHistogram();
+
+    void reset();
+
+}
@@ -0,0 +1,517 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class reads sources into a dictionary in stages. Each stage has its own
+ * threads and hands batches to the next stage through a bounded queue, so a
+ * slow disk and slow formatting do not hold each other up and memory use stays
+ * flat.
+ *
+ * The stages are:
+ * <ol>
+ * <li>read: reads blocks of text from the sources (zip entries are split
+ * between the read threads)</li>
+ * <li>normalize: unformats the blocks and splits them into words</li>
+ * <li>map: turns the words into word ids</li>
+ * <li>update: adds the ids to the dictionary one source at a time</li>
+ * </ol>
+ *
+ * Each source or zip entry is a stream, numbered in the order the read
+ * threads take them up. The update stage adds the streams in that order and
+ * holds back the blocks of later streams until the streams before them are
+ * finished, so the dictionary ends up the same as reading the sources one
+ * after another whatever the thread counts are. Read threads that get too far
+ * ahead of the update stage wait for it.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyPipeline {
+
+    private static final Batch END = new Batch(-1, -1, null, false);
+
+    private final Dictionary dictionary;
+    private final int readThreads;
+    private final int normalizeThreads;
+    private final int mapThreads;
+    private final int format;
+
+    private final BlockingQueue<Batch> blocks;
+    private final BlockingQueue<Batch> tokens;
+    private final BlockingQueue<Batch> ids;
+    private final ConcurrentLinkedQueue<EntryWork> entryWork = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger sourcesDone = new AtomicInteger();
+    private BlockingQueue<String> sources;
+
+    private final Object pickLock = new Object();
+    private int nextStream = 0;
+
+    private final Object aheadLock = new Object();
+    private final int maxAhead;
+    private int applying = 0;
+    private int ahead = 0;
+    private long batchesApplied = 0;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param dictionary Dictionary the sources are added to.
+     * @param readThreads Threads reading blocks.
+     * @param normalizeThreads Threads unformatting and splitting blocks.
+     * @param mapThreads Threads looking up word ids.
+     * @param format The input format.
+     */
+    public DerpyPipeline(Dictionary dictionary, int readThreads, int normalizeThreads, int mapThreads, int format) {
+        this.dictionary = dictionary;
+        this.readThreads = Math.max(1, readThreads);
+        this.normalizeThreads = Math.max(1, normalizeThreads);
+        this.mapThreads = Math.max(1, mapThreads);
+        this.format = format;
+
+        blocks = new ArrayBlockingQueue<>(2 * this.normalizeThreads + 2);
+        tokens = new ArrayBlockingQueue<>(2 * this.mapThreads + 2);
+        ids = new ArrayBlockingQueue<>(4);
+        maxAhead = 8 * this.readThreads;
+    }
+
+    /**
+     * Reads sources until DerpyWalker.END is taken from the queue. The calling
+     * thread does the update stage.
+     *
+     * @param sources Queue of sources ending with DerpyWalker.END.
+     * @param listener Listener told each time a source is done. May be null.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public void run(final BlockingQueue<String> sources, final DerpyManager.ProgressListener listener) throws InterruptedException {
+        this.sources = sources;
+        ExecutorService pool = Executors.newFixedThreadPool(readThreads + normalizeThreads + mapThreads);
+        final AtomicInteger readersLeft = new AtomicInteger(readThreads);
+        final AtomicInteger normalizersLeft = new AtomicInteger(normalizeThreads);
+        final AtomicInteger mappersLeft = new AtomicInteger(mapThreads);
+
+        try {
+            for (int i = 0; i < readThreads; i++) {
+                pool.execute(new Stage(readersLeft, blocks) {
+
+                    @Override
+                    void work() throws Exception {
+                        read(sources, listener);
+                    }
+                });
+            }
+            for (int i = 0; i < normalizeThreads; i++) {
+                pool.execute(new Stage(normalizersLeft, tokens) {
+
+                    @Override
+                    void work() throws Exception {
+                        Batch batch;
+                        while ((batch = take(blocks)) != END) {
+                            if (batch.isStreamEnd()) {
+                                tokens.put(batch);
+                                continue;
+                            }
+                            List<String> words = DerpyReader.splitWords((String) batch.data, format);
+                            tokens.put(batch.with(words.toArray(new String[words.size()])));
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < mapThreads; i++) {
+                pool.execute(new Stage(mappersLeft, ids) {
+
+                    @Override
+                    void work() throws Exception {
+                        Batch batch;
+                        while ((batch = take(tokens)) != END) {
+                            if (batch.isStreamEnd()) {
+                                ids.put(batch);
+                                continue;
+                            }
+                            String[] names = (String[]) batch.data;
+                            int[] wordIds = new int[names.length];
+                            int epoch = dictionary.getWordIds(names, names.length, wordIds);
+                            ids.put(batch.with(new MappedWords(names, wordIds, epoch)));
+                        }
+                    }
+                });
+            }
+
+            update();
+        } finally {
+            pool.shutdownNow();
+            for (EntryWork work : entryWork) {
+                work.finish();
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new RuntimeException("Reading failed", failure.get());
+        }
+        Boot.printIfVerbose("Pipeline applied " + batchesApplied + " batches...");
+    }
+
+    public String describe() {
+        return readThreads + " read, " + normalizeThreads + " normalize, " + mapThreads + " map and 1 update thread(s)";
+    }
+
+    /**
+     * The update stage. Batches can arrive out of order, so they are held until
+     * the batches before them have been added. A stream is only started once
+     * the stream before it has ended.
+     */
+    private void update() throws InterruptedException {
+        Map<Long, Batch> pending = new HashMap<>();
+        int stream = 0;
+        int expected = 0;
+
+        while (true) {
+            Batch batch = ids.poll(100, TimeUnit.MILLISECONDS);
+            if (failure.get() != null) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+            if (batch == END) {
+                break;
+            }
+
+            pending.put(key(batch.stream, batch.index), batch);
+            Batch next;
+            while ((next = pending.remove(key(stream, expected))) != null) {
+                if (next.isStreamEnd()) {
+                    stream++;
+                    expected = 0;
+                    synchronized (aheadLock) {
+                        applying = stream;
+                        aheadLock.notifyAll();
+                    }
+                    continue;
+                }
+
+                MappedWords words = (MappedWords) next.data;
+                dictionary.addTokens(words.names, words.ids, words.epoch, 0, words.ids.length);
+                batchesApplied++;
+                expected++;
+                if (next.ahead) {
+                    synchronized (aheadLock) {
+                        ahead--;
+                        aheadLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private static long key(int stream, int index) {
+        return ((long) stream << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The read stage. Takes sources off of the queue until END and sends their
+     * text on as blocks. Zip files are split into entries that any read thread
+     * may pick up. Entries are taken before new sources, and a stream number is
+     * given out in the same step as the source or entry it belongs to, so the
+     * streams are numbered in the order the sources were queued.
+     */
+    private void read(BlockingQueue<String> sources, DerpyManager.ProgressListener listener) throws InterruptedException {
+        while (true) {
+            EntryWork work;
+            String source = null;
+            Stream stream;
+            synchronized (pickLock) {
+                while ((work = entryWork.poll()) == null) {
+                    source = sources.poll(100, TimeUnit.MILLISECONDS);
+                    if (source == DerpyWalker.END) {
+                        sources.put(DerpyWalker.END); //Leave it for the other read threads
+                        if (entryWork.isEmpty()) {
+                            return;
+                        }
+                    } else if (source != null && !isZip(source)) {
+                        break;
+                    } else if (source != null) {
+                        try {
+                            splitZip(source);
+                        } catch (IOException e) {
+                            DerpyLogger.alert(e, "Could not read " + source + ", so it is left out of the dictionary.");
+                        }
+                    }
+                }
+                stream = new Stream(nextStream++);
+            }
+
+            if (work != null) {
+                readEntry(work, stream, listener);
+                continue;
+            }
+
+            try (Reader reader = DerpyReader.openReader(source)) {
+                readBlocks(reader, stream);
+                sourceDone(listener);
+            } catch (IOException e) {
+                DerpyLogger.alert(e, "Could not read " + source + ", so it is left out of the dictionary.");
+            } finally {
+                endStream(stream);
+            }
+        }
+    }
+
+    private static boolean isZip(String source) {
+        try {
+            return !source.equals(DerpyReader.STDIN) && DerpyReader.detectCompression(source) == DerpyReader.COMPRESSION_ZIP;
+        } catch (IOException e) {
+            return false; //Opening it again reports the problem
+        }
+    }
+
+    private void splitZip(String source) throws IOException {
+        ZipFile zip = new ZipFile(source);
+        List<ZipEntry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> e = zip.entries();
+        while (e.hasMoreElements()) {
+            ZipEntry entry = e.nextElement();
+            if (!entry.isDirectory()) {
+                entries.add(entry);
+            }
+        }
+
+        if (entries.isEmpty()) {
+            zip.close();
+            return;
+        }
+        AtomicInteger left = new AtomicInteger(entries.size());
+        for (ZipEntry entry : entries) {
+            entryWork.add(new EntryWork(zip, entry, left));
+        }
+    }
+
+    private void readEntry(EntryWork work, Stream stream, DerpyManager.ProgressListener listener) throws InterruptedException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(work.zip.getInputStream(work.entry)))) {
+            readBlocks(reader, stream);
+        } catch (IOException e) {
+            DerpyLogger.alert(e, "Could not read " + work.entry.getName() + " in " + work.zip.getName() + ", so it is left out of the dictionary.");
+        } finally {
+            endStream(stream);
+            if (work.finish()) {
+                sourceDone(listener);
+            }
+        }
+    }
+
+    /**
+     * Sends the text of one stream on as numbered blocks. While the stream is
+     * not the one being added, it waits once too many blocks are held back
+     * for later streams.
+     */
+    private void readBlocks(Reader reader, Stream stream) throws IOException, InterruptedException {
+        DerpyReader.ChunkReader chunks = new DerpyReader.ChunkReader(DerpyReader.filterFormat(reader, format), DerpyReader.CHUNK_SIZE);
+        String chunk;
+        while ((chunk = chunks.next()) != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            DerpyManager.getMetrics().addBytesRead(chunk.length());
+            boolean held;
+            synchronized (aheadLock) {
+                while (stream.id > applying && ahead >= maxAhead) {
+                    aheadLock.wait();
+                }
+                held = stream.id > applying;
+                if (held) {
+                    ahead++;
+                }
+            }
+            blocks.put(new Batch(stream.id, stream.blocks++, chunk, held));
+        }
+    }
+
+    /**
+     * Tells the update stage that a stream has no more blocks.
+     */
+    private void endStream(Stream stream) throws InterruptedException {
+        blocks.put(new Batch(stream.id, stream.blocks, null, false));
+    }
+
+    private void sourceDone(DerpyManager.ProgressListener listener) {
+        DerpyManager.getMetrics().fileCompleted();
+        int done = sourcesDone.incrementAndGet();
+        if (listener != null) {
+            int queued = sources.size() + entryWork.size();
+            if (sources.contains(DerpyWalker.END)) {
+                queued--;
+            }
+            listener.progress(done, done + Math.max(queued, 0));
+        }
+    }
+
+    private static Batch take(BlockingQueue<Batch> queue) throws InterruptedException {
+        Batch batch = queue.take();
+        if (batch == END) {
+            queue.put(END); //Leave it for the other threads of the stage
+        }
+        return batch;
+    }
+
+    /**
+     * A thread of a stage. When the last thread of a stage finishes, END is
+     * sent to the next stage.
+     */
+    private abstract class Stage implements Runnable {
+
+        private final AtomicInteger left;
+        private final BlockingQueue<Batch> output;
+
+        Stage(AtomicInteger left, BlockingQueue<Batch> output) {
+            this.left = left;
+            this.output = output;
+        }
+
+        abstract void work() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                work();
+                if (left.decrementAndGet() == 0) {
+                    output.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+    /**
+     * A source or zip entry being read and the number of blocks sent for it so
+     * far.
+     */
+    private static class Stream {
+
+        final int id;
+        int blocks = 0;
+
+        Stream(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * A block of text, list of words or list of ids and its place in the
+     * order the text was read. A batch without data ends its stream. Batches
+     * sent while an earlier stream was still being added are held back.
+     */
+    private static class Batch {
+
+        final int stream;
+        final int index;
+        final Object data;
+        final boolean ahead;
+
+        Batch(int stream, int index, Object data, boolean ahead) {
+            this.stream = stream;
+            this.index = index;
+            this.data = data;
+            this.ahead = ahead;
+        }
+
+        boolean isStreamEnd() {
+            return data == null;
+        }
+
+        Batch with(Object data) {
+            return new Batch(stream, index, data, ahead);
+        }
+    }
+
+    /**
+     * A list of words with the ids they were given and the eviction epoch the
+     * ids belong to. The names are kept so the ids can be looked up again if
+     * words were evicted before the batch is added.
+     */
+    private static class MappedWords {
+
+        final String[] names;
+        final int[] ids;
+        final int epoch;
+
+        MappedWords(String[] names, int[] ids, int epoch) {
+            this.names = names;
+            this.ids = ids;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * An entry of a zip file waiting to be read. The zip file is closed when
+     * its last entry is finished.
+     */
+    private static class EntryWork {
+
+        final ZipFile zip;
+        final ZipEntry entry;
+        final AtomicInteger left;
+
+        EntryWork(ZipFile zip, ZipEntry entry, AtomicInteger left) {
+            this.zip = zip;
+            this.entry = entry;
+            this.left = left;
+        }
+
+        boolean finish() {
+            if (left.decrementAndGet() == 0) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    DerpyLogger.warning(e, "Could not close " + zip.getName());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
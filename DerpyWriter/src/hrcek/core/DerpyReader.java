@@ -23,13 +23,24 @@
  */
 package hrcek.core;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringReader;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  *
@@ -37,9 +48,20 @@ import java.util.logging.Logger;
  */
 public class DerpyReader implements Runnable {
 
+    public static final String STDIN = "*STDIN*";
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    static final int COMPRESSION_NONE = 0;
+    static final int COMPRESSION_GZIP = 1;
+    static final int COMPRESSION_ZIP = 2;
+
+    private static boolean stdinOpened = false;
+    private static File stdinSpill = null;
+
     final Dictionary dictionary;
     final String fileLocation;
     final int numWords;
+    private int format = DerpyManager.getFileInputFormat();
 
     public DerpyReader(Dictionary dictionary, String fileLocation) {
         this.dictionary = dictionary;
@@ -54,7 +76,19 @@ public class DerpyReader implements Runnable {
     }
 
     /**
-     * This function reads through the file specified in fileLocation.
+     * Sets the format the source is read in. By default the input format of
+     * the DerpyManager is used.
+     *
+     * @param format One of the DerpyFormatter formats.
+     */
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    /**
+     * This function reads through the file specified in fileLocation. The file
+     * is read in chunks that end on whitespace, so memory use does not depend
+     * on the size of the file or the length of its lines.
      *
      * @TODO Add additional error checking
      *
@@ -63,79 +97,234 @@ public class DerpyReader implements Runnable {
      */
     private void readThroughFile() throws NoFileLocationException, IOException {
 
-        if (fileLocation == null || fileLocation == "") {
+        if (fileLocation == null || fileLocation.isEmpty()) {
             throw new NoFileLocationException("File location is null!");
         }
 
-        //TODO ADD ERROR CHECKING
-        if (numWords < 0) {
-            BufferedReader fileReader = null;
-            if (fileLocation.equals("*STDIN*")) {
-                fileReader = new BufferedReader(new StringReader(DerpyManager.stdin));
-            } else {
-                fileReader = new BufferedReader(new FileReader(fileLocation));
+        if (!fileLocation.equals(STDIN) && detectCompression(fileLocation) == COMPRESSION_ZIP) {
+            readThroughZip();
+        } else if (numWords < 0) {
+            try (Reader reader = openSource()) {
+                ingest(reader, -1);
             }
-            while (fileReader.ready()) {
-                String line = fileReader.readLine();
-                if (line != null) {
-                    if (line.length() > 0) {
-                        line = DerpyFormatter.unformatText(line, DerpyManager.getFileInputFormat());
-                        String[] words = line.split(" ");
-                        for (String word : words) {
-                            if (!word.equals("") && !word.equals(" ")) {
-                                dictionary.addWord(word.toLowerCase());
-                            }
+        } else {
+            int added = 0;
+            while (added < numWords && !Thread.currentThread().isInterrupted()) {
+                int pass;
+                try (Reader reader = openSource()) {
+                    pass = ingest(reader, numWords - added);
+                }
+                if (pass == 0) {
+                    break; //Nothing to read, so the weight can never be met.
+                }
+                added += pass;
+            }
+        }
+    }
+
+    /**
+     * Reads every entry of a zip file one after another, as if they were one
+     * long file.
+     */
+    private void readThroughZip() throws IOException {
+        try (ZipFile zip = new ZipFile(fileLocation)) {
+            int limit = numWords < 0 ? Integer.MAX_VALUE : numWords;
+            int added = 0;
+            while (added < limit && !Thread.currentThread().isInterrupted()) {
+                int pass = 0;
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements() && added + pass < limit) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        try (Reader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry)))) {
+                            pass += ingest(reader, numWords < 0 ? -1 : limit - added - pass);
                         }
                     }
-                } else {
+                }
+                if (pass == 0 || numWords < 0) {
                     break;
                 }
-
+                added += pass;
             }
-        } else {
-            int initSize = dictionary.getWordCount();
-            while (dictionary.getWordCount() - initSize < numWords) {
-                BufferedReader fileReader = null;
-                if (fileLocation.equals("*STDIN*")) {
-                    fileReader = new BufferedReader(new StringReader(DerpyManager.stdin));
-                } else {
-                    fileReader = new BufferedReader(new FileReader(fileLocation));
+        }
+    }
+
+    /**
+     * Adds the words from a reader to the dictionary. The words of each chunk
+     * are looked up and added in bulk, taking the dictionary lock twice per
+     * chunk instead of for every word. Dictionaries with a vocabulary limit
+     * are still added to word by word, so words are evicted at the same
+     * points.
+     *
+     * @param reader The text to read.
+     * @param limit Most words to add or -1 for no limit.
+     * @return The number of words added.
+     */
+    private int ingest(Reader reader, int limit) throws IOException {
+        int added = 0;
+        boolean bulk = dictionary.getVocabularyLimit() <= 0;
+        ChunkReader chunks = new ChunkReader(filterFormat(reader, format), CHUNK_SIZE);
+        int[] ids = new int[0];
+        String chunk;
+        while ((chunk = chunks.next()) != null && !Thread.currentThread().isInterrupted()) {
+            DerpyManager.getMetrics().addBytesRead(chunk.length());
+            List<String> words = splitWords(chunk, format);
+            int count = limit >= 0 ? Math.min(words.size(), limit - added) : words.size();
+            if (bulk) {
+                String[] names = words.toArray(new String[words.size()]);
+                if (ids.length < count) {
+                    ids = new int[Math.max(count, ids.length * 2)];
                 }
-                while (fileReader.ready()) {
-                    String line = fileReader.readLine();
-                    if (line != null) {
-                        if (line.length() > 0) {
-                            line = DerpyFormatter.unformatText(line);
-                            String[] words = line.split(" ");
-                            for (String word : words) {
-                                if (!word.isEmpty()) {
-                                    dictionary.addWord(word.toLowerCase());
-                                }
-                                if (dictionary.getWordCount() - initSize >= numWords) {
-                                    fileReader.close();
-                                    return;
-                                }
-                            }
-                        }
-                    } else {
-                        break;
-                    }
+                int epoch = dictionary.getWordIds(names, count, ids);
+                dictionary.addTokens(names, ids, epoch, 0, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    dictionary.addWord(words.get(i));
                 }
             }
+            added += count;
+            if (limit >= 0 && added >= limit) {
+                return added;
+            }
+        }
+        return added;
+    }
 
+    /**
+     * Wraps a reader so that markup is removed as the text is read. This is
+     * done before the text is cut into chunks, so tags and entities that cross
+     * chunk boundaries are handled.
+     *
+     * @param reader The reader of the source.
+     * @param format The input format.
+     * @return A reader of the text without markup.
+     */
+    static Reader filterFormat(Reader reader, int format) {
+        if (format == DerpyFormatter.DERPY_FORMAT_HTML) {
+            return new HtmlTokenizer(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Unformats a chunk of text and splits it into lower case words. Chunks of
+     * HTML must already have been through filterFormat.
+     *
+     * @param chunk The text.
+     * @param format The input format.
+     * @return The words in the order they appear.
+     */
+    static List<String> splitWords(String chunk, int format) {
+        if (format == DerpyFormatter.DERPY_FORMAT_HTML) {
+            format = DerpyFormatter.DERPY_FORMAT_PLAINTEXT; //Markup was already removed by filterFormat
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : DerpyFormatter.unformatText(chunk, format).split(" ")) {
+            if (!word.isEmpty()) {
+                words.add(word.toLowerCase());
+            }
         }
+        return words;
+    }
+
+    private Reader openSource() throws IOException {
+        return openReader(fileLocation);
+    }
+
+    /**
+     * Opens a source that is not a zip file. Gzip files are decompressed as
+     * they are read.
+     *
+     * @param location Location of the source or STDIN.
+     * @return A reader for the text of the source.
+     */
+    static Reader openReader(String location) throws IOException {
+        if (location.equals(STDIN)) {
+            return openStdin();
+        }
+        if (detectCompression(location) == COMPRESSION_GZIP) {
+            InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(location), CHUNK_SIZE), CHUNK_SIZE);
+            return new BufferedReader(new InputStreamReader(in));
+        }
+        return new BufferedReader(new FileReader(location));
+    }
+
+    /**
+     * Determines if a file is compressed by looking at its first bytes.
+     *
+     * @param location Location of the file.
+     * @return COMPRESSION_GZIP, COMPRESSION_ZIP or COMPRESSION_NONE.
+     */
+    static int detectCompression(String location) throws IOException {
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = new FileInputStream(location)) {
+            read = in.read(magic);
+        }
+
+        if (read >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return COMPRESSION_GZIP;
+        }
+        if (read == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            return COMPRESSION_ZIP;
+        }
+        return COMPRESSION_NONE;
+    }
+
+    /**
+     * Opens standard input as a source. Standard input can only be read once,
+     * so if it will be needed again (it is weighted or listed more than once)
+     * it is copied to a temporary spill file as it is read, and later opens
+     * read the spill file.
+     *
+     * @return A reader for standard input.
+     * @throws IOException If standard input was already used up.
+     */
+    static synchronized Reader openStdin() throws IOException {
+        if (!stdinOpened) {
+            stdinOpened = true;
+            Reader in = new BufferedReader(new InputStreamReader(System.in));
+            if (!DerpyManager.isThreadable() || Collections.frequency(DerpyManager.getSources(), STDIN) > 1) {
+                stdinSpill = File.createTempFile("derpy-stdin", ".txt");
+                stdinSpill.deleteOnExit();
+                return new TeeReader(in, new FileWriter(stdinSpill));
+            }
+            return in;
+        }
+
+        if (stdinSpill == null) {
+            throw new IOException("Standard input has already been read!");
+        }
+        return new BufferedReader(new FileReader(stdinSpill));
     }
 
     @Override
     public void run() {
         try {
             readThroughFile();
+            if (!Thread.currentThread().isInterrupted()) {
+                DerpyManager.getMetrics().fileCompleted();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
     }
 
+    /**
+     * Reads the source like run, but passes errors on instead of printing
+     * them.
+     *
+     * @throws IOException If the source can not be read.
+     */
+    void read() throws IOException {
+        try {
+            readThroughFile();
+        } catch (NoFileLocationException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
     /**
      * This function is used to determine if a word is actually a punctuation.
      *
@@ -163,6 +352,100 @@ public class DerpyReader implements Runnable {
         return false;
     }
 
+    /**
+     * Splits a reader into chunks of about a given size that end on whitespace.
+     * A word longer than the chunk size is cut. Carriage returns are turned
+     * into new lines so the formatter sees the same text as it would line by
+     * line.
+     */
+    static class ChunkReader {
+
+        private final Reader reader;
+        private final char[] buffer;
+        private final StringBuilder carry = new StringBuilder();
+        private boolean finished = false;
+
+        ChunkReader(Reader reader, int size) {
+            this.reader = reader;
+            this.buffer = new char[size];
+        }
+
+        String next() throws IOException {
+            while (!finished) {
+                int read = reader.read(buffer);
+                if (read < 0) {
+                    finished = true;
+                    break;
+                }
+
+                int cut = -1;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\r') {
+                        buffer[i] = '\n';
+                    }
+                    if (Character.isWhitespace(buffer[i])) {
+                        cut = i;
+                    }
+                }
+
+                if (cut < 0 && carry.length() + read < buffer.length) {
+                    carry.append(buffer, 0, read);
+                    continue;
+                }
+                if (cut < 0) {
+                    cut = read - 1;
+                }
+
+                carry.append(buffer, 0, cut + 1);
+                String chunk = carry.toString();
+                carry.setLength(0);
+                carry.append(buffer, cut + 1, read - cut - 1);
+                return chunk;
+            }
+
+            if (carry.length() > 0) {
+                String chunk = carry.toString();
+                carry.setLength(0);
+                return chunk;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A reader that copies everything read through it to a writer. When closed
+     * the rest of the input is copied as well, so the copy is always complete.
+     */
+    private static class TeeReader extends Reader {
+
+        private final Reader in;
+        private final Writer copy;
+
+        TeeReader(Reader in, Writer copy) {
+            this.in = in;
+            this.copy = copy;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = in.read(cbuf, off, len);
+            if (read > 0) {
+                copy.write(cbuf, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            char[] rest = new char[CHUNK_SIZE];
+            while (read(rest, 0, rest.length) >= 0) {
+                //Drain into the copy
+            }
+            copy.close();
+            in.close();
+        }
+    }
+
     private class FileErrorException extends Exception {
 
         public FileErrorException(String message) {
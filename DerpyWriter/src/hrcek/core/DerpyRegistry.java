@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import static hrcek.core.Boot.printIfVerbose;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class holds many named dictionaries in one process, so one server can
+ * write in many styles. Dictionaries are registered by name with the file
+ * they were saved to, and are only loaded the first time they are asked for.
+ *
+ * When the dictionaries loaded take more than the budget, the least recently
+ * used ones are dropped. They are loaded again the next time they are asked
+ * for. Writers that already hold a dropped dictionary keep using it until
+ * they are done.
+ *
+ * The names of words are shared between every dictionary loaded, so a word
+ * used by many dictionaries is only held once. Sizes are estimates (see
+ * DerpyInspector) and do not take the shared names into account.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyRegistry {
+
+    public static final String EXTENSION = ".dict";
+
+    private final long budget;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final LinkedHashMap<String, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, WeakReference<String>> vocabulary = new WeakHashMap<>();
+    private long residentBytes = 0;
+    private long loads = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param budget Estimated bytes the loaded dictionaries may take. 0 for no
+     * limit.
+     */
+    public DerpyRegistry(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Registers a saved dictionary under a name. Registering a name again
+     * replaces it; a loaded dictionary of that name is dropped.
+     *
+     * @param name The name the dictionary is asked for by.
+     * @param location Where the dictionary was saved.
+     */
+    public synchronized void register(String name, String location) {
+        drop(name);
+        entries.put(name, new Entry(location));
+    }
+
+    /**
+     * Registers every dictionary file in a directory under its file name
+     * without the extension.
+     *
+     * @param directory The directory.
+     * @return The number of dictionaries registered.
+     */
+    public int registerDirectory(File directory) {
+        File[] files = directory.listFiles();
+        int registered = 0;
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (file.isFile() && fileName.endsWith(EXTENSION)) {
+                    register(fileName.substring(0, fileName.length() - EXTENSION.length()), file.getPath());
+                    registered++;
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Gets the names of the registered dictionaries.
+     *
+     * @return The names, sorted.
+     */
+    public synchronized List<String> getNames() {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public synchronized boolean hasDictionary(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Gets a dictionary by name, loading it if it is not loaded. Other
+     * dictionaries can be asked for while one is loading.
+     *
+     * @param name The name of the dictionary.
+     * @return The frozen dictionary, or null if no dictionary has the name.
+     * @throws IOException If the dictionary could not be loaded.
+     */
+    public Dictionary get(String name) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.dictionary != null) {
+                resident.get(name); //Marks it as recently used
+                return entry.dictionary;
+            }
+        }
+
+        synchronized (entry) { //Only one thread loads each dictionary
+            synchronized (this) {
+                if (entry.dictionary != null) {
+                    resident.get(name);
+                    return entry.dictionary;
+                }
+            }
+
+            long start = System.nanoTime();
+            Dictionary dictionary = load(entry.location);
+            long bytes = dictionary.freeze();
+            for (int i = 0; i < dictionary.getSize(); i++) {
+                bytes += DerpyInspector.estimateWordBytes(dictionary.getWord(i));
+            }
+
+            synchronized (this) {
+                if (entries.get(name) != entry) {
+                    return dictionary; //Registered again while loading
+                }
+                entry.dictionary = dictionary;
+                entry.bytes = bytes;
+                resident.put(name, entry);
+                residentBytes += bytes;
+                loads++;
+                printIfVerbose("Loaded dictionary " + name + " (about " + (bytes >> 20) + "MB) in " + (System.nanoTime() - start) / 1000000 + "ms...");
+                evictOver(name);
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Gets the suggester for a dictionary, working it out the first time it
+     * is asked for. It is dropped with the dictionary.
+     *
+     * @param name The name of the dictionary.
+     * @return The suggester, or null if no dictionary has the name.
+     * @throws IOException If the dictionary could not be loaded.
+     */
+    public DerpySuggester getSuggester(String name) throws IOException {
+        Dictionary dictionary = get(name);
+        if (dictionary == null) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        synchronized (entry) {
+            if (entry.suggester == null || entry.suggester.getDictionary() != dictionary) {
+                entry.suggester = new DerpySuggester(dictionary);
+            }
+            return entry.suggester;
+        }
+    }
+
+    private Dictionary load(String location) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        try (DerpyMerger.WordStream stream = new DerpyMerger.WordStream(location)) {
+            dictionary.setAccuracy(stream.getAccuracy());
+            Word word;
+            while ((word = stream.next()) != null) {
+                word.name = intern(word.name);
+                dictionary.addWord(word);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Gets the shared copy of a name. Names no dictionary uses any more are
+     * forgotten by the garbage collector.
+     */
+    private String intern(String name) {
+        synchronized (vocabulary) {
+            WeakReference<String> shared = vocabulary.get(name);
+            String existing = shared == null ? null : shared.get();
+            if (existing != null) {
+                return existing;
+            }
+            vocabulary.put(name, new WeakReference<>(name));
+            return name;
+        }
+    }
+
+    /**
+     * Drops the least recently used dictionaries until the rest fit in the
+     * budget. The dictionary just loaded is kept even if it does not fit on
+     * its own.
+     */
+    private void evictOver(String keep) {
+        Iterator<Map.Entry<String, Entry>> eldest = resident.entrySet().iterator();
+        while (budget > 0 && residentBytes > budget && eldest.hasNext()) {
+            Map.Entry<String, Entry> next = eldest.next();
+            if (next.getKey().equals(keep)) {
+                continue;
+            }
+            eldest.remove();
+            residentBytes -= next.getValue().bytes;
+            next.getValue().dictionary = null;
+            next.getValue().suggester = null;
+            evictions++;
+            printIfVerbose("Dropped dictionary " + next.getKey() + "...");
+        }
+    }
+
+    private void drop(String name) {
+        Entry entry = resident.remove(name);
+        if (entry != null) {
+            residentBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Gets the estimated bytes the loaded dictionaries take.
+     *
+     * @return The estimate in bytes.
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * A registered dictionary and, while it is loaded, the dictionary itself.
+     */
+    private static class Entry {
+
+        final String location;
+        volatile Dictionary dictionary;
+        volatile DerpySuggester suggester;
+        long bytes;
+
+        Entry(String location) {
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves stories over HTTP on the local machine. The dictionary is
+ * read once and every request gets its own writer and thread, so requests with
+ * different settings can run at the same time.
+ *
+ * Requests look like: GET /generate?count=200&seed=42&format=html&accuracy=2
+ *
+ * The likely next words after some text are given by
+ * GET /suggest?text=once+upon+a&count=5 as one word and its chance per line.
+ *
+ * With a registry, both take dictionary=NAME to use a dictionary from the
+ * registry instead of the one the server was started with. GET /dictionaries
+ * lists the names.
+ *
+ * The accuracy may be anything from 1 up to the accuracy of the dictionary, so
+ * one dictionary serves every lower accuracy too.
+ *
+ * The response is sent in chunks, one paragraph at a time, so long stories
+ * start arriving before they are finished.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyServer {
+
+    private final Dictionary dictionary;
+    private HttpServer server;
+    private ExecutorService executor;
+    private DerpySuggester suggester;
+    private DerpyRegistry registry;
+
+    public DerpyServer(Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Sets the registry that requests naming a dictionary are served from.
+     *
+     * @param registry The registry. May be null.
+     */
+    public void setRegistry(DerpyRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts the server on the loopback address.
+     *
+     * @param port Port to listen on.
+     * @throws IOException If the port can not be bound.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/generate", new GenerateHandler());
+        server.createContext("/suggest", new SuggestHandler());
+        server.createContext("/dictionaries", new DictionariesHandler());
+        server.start();
+    }
+
+    /**
+     * Stops the server. Requests that are running are given a second to
+     * finish.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Splits a query string into its parameters.
+     *
+     * @param query The raw query. May be null.
+     * @return Map of the parameter names to values.
+     */
+    static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split < 0) {
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                params.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"), URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String msg) throws IOException {
+        byte[] body = (msg + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Gets the dictionary a request names, or the dictionary the server was
+     * started with if it names none. If there is no such dictionary an error is
+     * sent.
+     *
+     * @return The dictionary, or null if an error was sent.
+     */
+    private Dictionary getDictionary(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String name = params.get("dictionary");
+        if (name == null) {
+            if (dictionary.getSize() == 0) {
+                sendError(exchange, 404, "There is no default dictionary, pass dictionary=NAME");
+                return null;
+            }
+            return dictionary;
+        }
+
+        Dictionary named;
+        try {
+            named = registry == null ? null : registry.get(name);
+        } catch (IOException e) {
+            DerpyLogger.warning(e, "Could not load dictionary " + name);
+            sendError(exchange, 500, "Could not load dictionary " + name);
+            return null;
+        }
+        if (named == null) {
+            sendError(exchange, 404, "Unknown dictionary: " + name);
+        }
+        return named;
+    }
+
+    /**
+     * Gets the suggester, working it out the first time suggestions are
+     * asked for.
+     */
+    private synchronized DerpySuggester getSuggester() {
+        if (suggester == null) {
+            suggester = new DerpySuggester(dictionary);
+        }
+        return suggester;
+    }
+
+    private class SuggestHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!params.containsKey("text")) {
+                sendError(exchange, 400, "text is required");
+                return;
+            }
+            int count;
+            try {
+                count = params.containsKey("count") ? Integer.parseInt(params.get("count")) : DerpySuggester.DEFAULT_COUNT;
+                if (count < 1) {
+                    sendError(exchange, 400, "count must be a positive integer");
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "count must be an integer");
+                return;
+            }
+
+            Dictionary target = getDictionary(exchange, params);
+            if (target == null) {
+                return;
+            }
+            DerpySuggester targetSuggester = target == dictionary ? getSuggester() : registry.getSuggester(params.get("dictionary"));
+
+            StringBuilder out = new StringBuilder();
+            for (DerpySuggester.Suggestion suggestion : targetSuggester.suggest(params.get("text"), DerpyManager.getFileInputFormat(), count)) {
+                out.append(suggestion).append('\n');
+            }
+            byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }
+    }
+
+    private class DictionariesHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StringBuilder out = new StringBuilder();
+            if (registry != null) {
+                for (String name : registry.getNames()) {
+                    out.append(name).append('\n');
+                }
+            }
+            byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }
+    }
+
+    private class GenerateHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            Dictionary target = getDictionary(exchange, params);
+            if (target == null) {
+                return;
+            }
+
+            final int count;
+            final int format;
+            DerpyWriter dw = DerpyManager.createWriter(target);
+            try {
+                count = params.containsKey("count") ? Integer.parseInt(params.get("count")) : DerpyManager.getOutput();
+                if (count < 0 || count > DerpyDaemon.MAX_OUTPUT) {
+                    sendError(exchange, 400, "count must be between 0 and " + DerpyDaemon.MAX_OUTPUT);
+                    return;
+                }
+                if (params.containsKey("seed")) {
+                    dw.setRandom(new Random(Long.parseLong(params.get("seed"))));
+                }
+                if (params.containsKey("accuracy")) {
+                    int accuracy = Integer.parseInt(params.get("accuracy"));
+                    if (accuracy < 1 || accuracy > target.getAccuracy()) {
+                        sendError(exchange, 400, "accuracy must be between 1 and " + target.getAccuracy());
+                        return;
+                    }
+                    dw.setAccuracy(accuracy);
+                }
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "count, seed and accuracy must be integers");
+                return;
+            }
+
+            if (params.containsKey("format")) {
+                format = DerpyFormatter.parseOutputFormat(params.get("format"));
+                if (format < 0) {
+                    sendError(exchange, 400, "Unknown format: " + params.get("format"));
+                    return;
+                }
+            } else {
+                format = DerpyManager.getFileOutputFormat();
+            }
+            if (params.containsKey("ignorePunctuation")) {
+                dw.setIgnorePunctuation(Boolean.parseBoolean(params.get("ignorePunctuation")));
+            }
+            if (params.containsKey("strict")) {
+                dw.setStrictMode(Boolean.parseBoolean(params.get("strict")));
+            }
+            dw.setVerbose(false);
+
+            String type = format == DerpyFormatter.DERPY_FORMAT_HTML ? "text/html" : "text/plain";
+            exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+
+            Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+            try {
+                StoryStream stream = new StoryStream(out, DerpyManager.isFormatText(), format);
+                stream.writeHeader();
+                dw.generateStory(count, stream);
+                stream.writeFooter();
+                out.close();
+            } catch (StoryStream.ClientGoneException e) {
+                DerpyLogger.warning(e, "Client went away while writing.");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class records timing and throughput for each phase of a run (loading,
+ * reading, writing and saving). The report is written as JSON so runs can be
+ * compared against each other.
+ *
+ * CPU time is taken from the whole process when the JVM supports it, so worker
+ * threads are included. Allocated bytes only cover the thread that ran the
+ * phase.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyStats {
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final long created = System.currentTimeMillis();
+    private volatile boolean measuringResources = true;
+
+    /**
+     * Sets if CPU time and allocated bytes are measured. Measuring them starts
+     * the platform MXBeans, which takes a while, so runs that do not report
+     * stats turn it off.
+     *
+     * @param measuringResources True to measure CPU time and allocation.
+     */
+    public void setMeasuringResources(boolean measuringResources) {
+        this.measuringResources = measuringResources;
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @param name Name of the phase as it will appear in the report.
+     * @return The started phase. Pass it to end() when the phase is done.
+     */
+    public Phase begin(String name) {
+        Phase phase = new Phase(name);
+        phase.start(measuringResources);
+        return phase;
+    }
+
+    /**
+     * Stops timing a phase and adds it to the report.
+     *
+     * @param phase Phase returned by begin().
+     */
+    public synchronized void end(Phase phase) {
+        phase.stop();
+        phases.add(phase);
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    /**
+     * Creates the JSON report.
+     *
+     * @return The report as a JSON string.
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": ").append(created).append(",\n");
+        json.append("  \"accuracy\": ").append(DerpyManager.getAccuracy()).append(",\n");
+        json.append("  \"threads\": ").append(DerpyManager.getThreads()).append(",\n");
+        json.append("  \"sources\": ").append(DerpyManager.getSources().size()).append(",\n");
+        json.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    ").append(phases.get(i).toJson());
+        }
+        json.append("\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes the report. A hyphen writes it to standard error so it does not
+     * get mixed up with a story written to standard output.
+     *
+     * @param location File to write to or a hyphen.
+     */
+    public void write(String location) {
+        String json = toJson();
+        if (location.equals("-")) {
+            System.err.print(json);
+            System.err.flush();
+            return;
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(location)))) {
+            writer.write(json);
+        } catch (IOException ex) {
+            DerpyLogger.warning(ex, "Could not write stats to " + location);
+        }
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long time = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            if (time >= 0) {
+                return time;
+            }
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isCurrentThreadCpuTimeSupported()) {
+            return threads.getCurrentThreadCpuTime();
+        }
+        return 0;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A single timed phase. Item counts are taken from the DerpyMetrics
+     * counters at the start and end of the phase.
+     */
+    public static class Phase {
+
+        private final String name;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long tokens;
+        private long words;
+        private long bytesRead;
+        private long bytesWritten;
+        private boolean measured;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        private void start(boolean measured) {
+            this.measured = measured;
+            DerpyMetrics metrics = DerpyManager.getMetrics();
+            tokens = metrics.getTokensIngested();
+            words = metrics.getWordsGenerated();
+            bytesRead = metrics.getBytesRead();
+            bytesWritten = metrics.getBytesWritten();
+            if (measured) {
+                allocatedBytes = allocatedBytes();
+                cpuNanos = processCpuTime();
+            }
+            wallNanos = System.nanoTime();
+        }
+
+        private void stop() {
+            wallNanos = System.nanoTime() - wallNanos;
+            if (measured) {
+                cpuNanos = processCpuTime() - cpuNanos;
+                allocatedBytes = allocatedBytes() - allocatedBytes;
+            }
+            DerpyMetrics metrics = DerpyManager.getMetrics();
+            tokens = metrics.getTokensIngested() - tokens;
+            words = metrics.getWordsGenerated() - words;
+            bytesRead = metrics.getBytesRead() - bytesRead;
+            bytesWritten = metrics.getBytesWritten() - bytesWritten;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+
+        public long getWords() {
+            return words;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        String toJson() {
+            return "{\"name\": " + quote(name)
+                    + ", \"wallNanos\": " + wallNanos
+                    + ", \"cpuNanos\": " + cpuNanos
+                    + ", \"allocatedBytes\": " + allocatedBytes
+                    + ", \"tokens\": " + tokens
+                    + ", \"words\": " + words
+                    + ", \"bytesRead\": " + bytesRead
+                    + ", \"bytesWritten\": " + bytesWritten
+                    + "}";
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class suggests the words most likely to come next after some text.
+ * The words that most often followed each word are worked out once when the
+ * suggester is made, so a suggestion only looks at a short list instead of
+ * every word that ever followed.
+ *
+ * Words are scored the same way the writer picks them (see
+ * NextWordDistribution): the number of times a candidate followed the last
+ * word, plus the number of times it followed each earlier word at that
+ * distance. The chance of a suggestion is its score over the total score. When
+ * a word had more words after it than the suggester keeps, the earlier words
+ * only add to the kept candidates, so chances are a little high.
+ *
+ * The suggester is a snapshot. Make a new one after reading more.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpySuggester {
+
+    public static final int DEFAULT_DEPTH = 16;
+    public static final int DEFAULT_COUNT = 5;
+
+    private static final List<Suggestion> NONE = Collections.emptyList();
+
+    private final Dictionary dictionary;
+    private final String[][] names;
+    private final int[][] counts;
+    private final long[] totals;
+
+    public DerpySuggester(Dictionary dictionary) {
+        this(dictionary, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Works out the most common words after every word in a dictionary.
+     *
+     * @param dictionary The dictionary.
+     * @param depth Most candidates kept for each word. No more suggestions
+     * than this are given.
+     */
+    public DerpySuggester(Dictionary dictionary, int depth) {
+        this.dictionary = dictionary;
+        int size = dictionary.getSize();
+        names = new String[size][];
+        counts = new int[size][];
+        totals = new long[size];
+
+        for (int id = 0; id < size; id++) {
+            final Word.Successors after = dictionary.getWord(id).getSuccessors(0);
+            Integer[] order = new Integer[after.size()];
+            for (int k = 0; k < order.length; k++) {
+                order[k] = k;
+                totals[id] += after.getCount(k);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int byCount = Integer.compare(after.getCount(b), after.getCount(a));
+                    return byCount != 0 ? byCount : after.getName(a).compareTo(after.getName(b));
+                }
+            });
+            int kept = Math.min(depth, order.length);
+            names[id] = new String[kept];
+            counts[id] = new int[kept];
+            for (int k = 0; k < kept; k++) {
+                names[id][k] = after.getName(order[k]);
+                counts[id][k] = after.getCount(order[k]);
+            }
+        }
+    }
+
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Suggests the next words after some text. The text is split into words
+     * the same way sources are.
+     *
+     * @param text The text typed so far.
+     * @param format The input format of the text.
+     * @param count Most suggestions to give.
+     * @return The suggestions, most likely first.
+     */
+    public List<Suggestion> suggest(String text, int format, int count) {
+        return suggest(DerpyReader.splitWords(text, format), count);
+    }
+
+    /**
+     * Suggests the next words after a list of words. Only the last words up to
+     * the accuracy of the dictionary are used.
+     *
+     * @param words The words so far, the last word last.
+     * @param count Most suggestions to give.
+     * @return The suggestions, most likely first. Empty if the last word is
+     * not in the dictionary or nothing followed it.
+     */
+    public List<Suggestion> suggest(List<String> words, int count) {
+        if (words.isEmpty()) {
+            return NONE;
+        }
+        int last = dictionary.findWordId(words.get(words.size() - 1));
+        if (last < 0 || last >= names.length || names[last].length == 0) {
+            return NONE;
+        }
+
+        Word[] past = new Word[Math.min(words.size(), dictionary.getAccuracy())];
+        for (int i = 1; i < past.length; i++) {
+            int id = dictionary.findWordId(words.get(words.size() - 1 - i));
+            past[i] = id < 0 ? null : dictionary.getWord(id);
+        }
+
+        String[] candidates = names[last];
+        long[] scores = new long[candidates.length];
+        long total = totals[last];
+        for (int k = 0; k < candidates.length; k++) {
+            scores[k] = counts[last][k];
+            if (NextWordDistribution.isEndPunctuation(candidates[k])) {
+                continue;
+            }
+            for (int i = 1; i < past.length; i++) {
+                if (past[i] != null) {
+                    int added = past[i].getCountAfter(i, candidates[k]);
+                    scores[k] += added;
+                    total += added;
+                }
+            }
+        }
+
+        Integer[] order = new Integer[candidates.length];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        if (past.length > 1) {
+            final long[] byScore = scores;
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(byScore[b], byScore[a]); //Stable, so ties keep the precomputed order
+                }
+            });
+        }
+
+        List<Suggestion> suggestions = new ArrayList<>();
+        for (int k = 0; k < Math.min(count, order.length); k++) {
+            suggestions.add(new Suggestion(candidates[order[k]], (double) scores[order[k]] / total));
+        }
+        return suggestions;
+    }
+
+    /**
+     * A suggested word and its chance of coming next.
+     */
+    public static class Suggestion {
+
+        private final String word;
+        private final double probability;
+
+        public Suggestion(String word, double probability) {
+            this.word = word;
+            this.probability = probability;
+        }
+
+        public String getWord() {
+            return word;
+        }
+
+        public double getProbability() {
+            return probability;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%.6f", word, probability);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class expands directory and glob sources into files. Directories are
+ * walked in parallel and every file found is put on a queue as soon as it is
+ * found, so reading can start before the walk is done. When the walk is
+ * finished END is put on the queue.
+ *
+ * Include and exclude patterns are globs. A pattern with a path separator is
+ * matched against the path from the walked directory or glob base, and
+ * against the whole path, otherwise it is matched against the file name.
+ * Excluded directories are not walked. A glob source without ** is only
+ * walked as deep as it has path elements.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class DerpyWalker {
+
+    public static final String END = new String("*END*");
+    static final int UNLIMITED = -1;
+
+    private final BlockingQueue<String> queue;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<Boolean> includesUsePath = new ArrayList<>();
+    private final List<Boolean> excludesUsePath = new ArrayList<>();
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a walker.
+     *
+     * @param queue Queue the files are put on.
+     * @param includes Patterns a file must match. Empty to take every file.
+     * @param excludes Patterns that skip a file or directory.
+     * @param parallelism Number of threads used to walk.
+     */
+    public DerpyWalker(BlockingQueue<String> queue, List<String> includes, List<String> excludes, int parallelism) {
+        this.queue = queue;
+        for (String include : includes) {
+            this.includes.add(FileSystems.getDefault().getPathMatcher("glob:" + include));
+            this.includesUsePath.add(include.contains("/") || include.contains(File.separator));
+        }
+        for (String exclude : excludes) {
+            this.excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + exclude));
+            this.excludesUsePath.add(exclude.contains("/") || exclude.contains(File.separator));
+        }
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Determines if a source is a glob pattern instead of a file name.
+     *
+     * @param source The source.
+     * @return If the source has glob characters in it.
+     */
+    public static boolean isPattern(String source) {
+        return source.contains("*") || source.contains("?") || source.contains("[") || source.contains("{");
+    }
+
+    /**
+     * Determines if a source has to be walked instead of read directly.
+     *
+     * @param source The source.
+     * @return If the source is a directory or glob.
+     */
+    public static boolean needsWalk(String source) {
+        return isPattern(source) || new File(source).isDirectory();
+    }
+
+    /**
+     * Starts walking the sources in the background. Plain files are put on the
+     * queue as they are.
+     *
+     * @param sources The sources to walk.
+     */
+    public void start(final List<String> sources) {
+        Thread walker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    pool.invoke(new SourcesTask(sources));
+                } catch (Exception e) {
+                    DerpyLogger.warning(e, "Walking sources failed.");
+                } finally {
+                    try {
+                        queue.put(END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "derpy-walker");
+        walker.setDaemon(true);
+        walker.start();
+    }
+
+    /**
+     * Stops the walk. Files not yet found are skipped.
+     */
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Walks the sources and waits for the walk to finish.
+     *
+     * @param sources The sources to walk.
+     * @return Every file found.
+     */
+    public List<String> collect(List<String> sources) throws InterruptedException {
+        start(sources);
+        List<String> files = new ArrayList<>();
+        String file;
+        while ((file = queue.take()) != END) {
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Expands sources that need walking. Each file found keeps the weight of
+     * the source it was found under.
+     *
+     * @param sources The sources.
+     * @param weights Weight of each source.
+     * @param expandedSources List the files are added to.
+     * @param expandedWeights List the weights are added to.
+     */
+    public static void expand(List<String> sources, List<Integer> weights, List<String> expandedSources, List<Integer> expandedWeights,
+            List<String> includes, List<String> excludes, int parallelism) throws InterruptedException {
+        for (int i = 0; i < sources.size(); i++) {
+            if (needsWalk(sources.get(i))) {
+                DerpyWalker walker = new DerpyWalker(new LinkedBlockingQueue<String>(), includes, excludes, parallelism);
+                List<String> sourceList = new ArrayList<>();
+                sourceList.add(sources.get(i));
+                for (String file : walker.collect(sourceList)) {
+                    expandedSources.add(file);
+                    expandedWeights.add(weights.get(i));
+                }
+            } else {
+                expandedSources.add(sources.get(i));
+                expandedWeights.add(weights.get(i));
+            }
+        }
+    }
+
+    /**
+     * Determines if a path matches any of the patterns. Patterns with a path
+     * separator are tried against the path from the root and the whole path.
+     */
+    private boolean matches(List<PathMatcher> matchers, List<Boolean> usePath, Path path, Path root) {
+        for (int i = 0; i < matchers.size(); i++) {
+            if (usePath.get(i)) {
+                if (matchers.get(i).matches(root.relativize(path)) || matchers.get(i).matches(path)) {
+                    return true;
+                }
+            } else if (path.getFileName() != null && matchers.get(i).matches(path.getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void offer(Path file, Path root) {
+        if (matches(excludes, excludesUsePath, file, root)) {
+            return;
+        }
+        if (!includes.isEmpty() && !matches(includes, includesUsePath, file, root)) {
+            return;
+        }
+        try {
+            queue.put(file.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the directory a glob pattern starts from. This is the part of the
+     * pattern before the first path element with glob characters in it.
+     */
+    static Path patternBase(String pattern) {
+        String[] parts = pattern.split("[/\\\\]");
+        StringBuilder base = new StringBuilder();
+        if (pattern.startsWith("/")) {
+            base.append('/');
+        }
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (isPattern(parts[i])) {
+                break;
+            }
+            if (!parts[i].isEmpty()) {
+                base.append(parts[i]).append(File.separator);
+            }
+        }
+        return Paths.get(base.length() == 0 ? "." : base.toString()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Removes . and .. elements from an absolute glob pattern, so it matches
+     * the normalized paths that are walked. This is done on the text, since
+     * glob characters are not allowed in paths everywhere.
+     */
+    static String normalizePattern(String pattern) {
+        List<String> parts = new ArrayList<>();
+        for (String part : pattern.split("[/\\\\]")) {
+            if (part.equals("..")) {
+                if (!parts.isEmpty()) {
+                    parts.remove(parts.size() - 1);
+                }
+            } else if (!part.isEmpty() && !part.equals(".")) {
+                parts.add(part);
+            }
+        }
+        StringBuilder normalized = new StringBuilder();
+        if (pattern.startsWith("/")) {
+            normalized.append('/');
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                normalized.append(File.separator);
+            }
+            normalized.append(parts.get(i));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Gets how many directory levels a glob pattern reaches below its base,
+     * counting the level of the files. Patterns with ** reach any depth.
+     */
+    static int patternDepth(String pattern, Path base) {
+        if (pattern.contains("**")) {
+            return UNLIMITED;
+        }
+        return Paths.get(pattern.replaceAll("[*?\\[\\]{}]", "_")).getNameCount() - base.getNameCount();
+    }
+
+    private class SourcesTask extends RecursiveAction {
+
+        static final long serialVersionUID = 1L;
+
+        private final List<String> sources;
+
+        SourcesTask(List<String> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (String source : sources) {
+                if (isPattern(source)) {
+                    String absolute = normalizePattern(new File(source).isAbsolute() ? source : new File(source).getAbsolutePath());
+                    PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + absolute);
+                    Path base = patternBase(absolute);
+                    tasks.add(new WalkTask(base, base, glob, patternDepth(absolute, base)));
+                } else if (new File(source).isDirectory()) {
+                    Path root = Paths.get(source).toAbsolutePath().normalize();
+                    tasks.add(new WalkTask(root, root, null, UNLIMITED));
+                } else {
+                    try {
+                        queue.put(source);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private class WalkTask extends RecursiveAction {
+
+        static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Path root;
+        private final PathMatcher glob;
+        private final int depth;
+
+        /**
+         * Creates a task walking one directory.
+         *
+         * @param directory The directory.
+         * @param root The directory the walk started from.
+         * @param glob Pattern files must match, or null for every file.
+         * @param depth Levels left to walk, counting this one, or UNLIMITED.
+         */
+        WalkTask(Path directory, Path root, PathMatcher glob, int depth) {
+            this.directory = directory;
+            this.root = root;
+            this.glob = glob;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        if ((depth == UNLIMITED || depth > 1) && !matches(excludes, excludesUsePath, child, root)) {
+                            tasks.add(new WalkTask(child, root, glob, depth == UNLIMITED ? UNLIMITED : depth - 1));
+                        }
+                    } else if (Files.isRegularFile(child)) {
+                        if (glob == null || glob.matches(child)) {
+                            offer(child, root);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                DerpyLogger.warning(e, "Could not walk " + directory);
+            }
+            invokeAll(tasks);
+        }
+    }
+
+}
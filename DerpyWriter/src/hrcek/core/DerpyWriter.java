@@ -25,8 +25,12 @@ package hrcek.core;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
+ * This class writes stories from a dictionary. Every setting the writer uses is
+ * held by the writer itself, so several writers can work on the same
+ * dictionary at once with different settings.
  *
  * @author Michael Hrcek <hrcekmj@clarkson.edu>
  */
@@ -35,19 +39,69 @@ public class DerpyWriter {
     private volatile Dictionary dictionary;
     private int targetSentencesPerParagraph;
 
-    private static boolean ignorePunctuation = false;
+    private int accuracy = 0;
+    private boolean ignorePunctuation = false;
+    private boolean strictMode = false;
+    private boolean verbose = false;
+    private Random random = new Random();
 
-    public static void setIgnorePunctuation(boolean ignorePunctuation) {
-        DerpyWriter.ignorePunctuation = ignorePunctuation;
+    public DerpyWriter(Dictionary dictionary) {
+        this.dictionary = dictionary;
+        targetSentencesPerParagraph = 5;
+    }
+
+    /**
+     * Sets how many past words are used to pick each word. A dictionary can
+     * be written from with its own accuracy or any lower one, so writers with
+     * different accuracies can share one dictionary.
+     *
+     * @param accuracy The accuracy, or 0 to use the accuracy of the
+     * dictionary. Higher values are lowered to the accuracy of the dictionary.
+     */
+    public void setAccuracy(int accuracy) {
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * Gets how many past words are used to pick each word.
+     *
+     * @return The accuracy used for writing.
+     */
+    public int getAccuracy() {
+        int max = dictionary.getAccuracy();
+        return accuracy <= 0 || accuracy > max ? max : accuracy;
+    }
+
+    /**
+     * This will allow end punctuation to be placed close together. If this is
+     * not wanted, this value should be false...
+     *
+     * @param ignorePunctuation
+     */
+    public void setIgnorePunctuation(boolean ignorePunctuation) {
+        this.ignorePunctuation = ignorePunctuation;
     }
 
-    public static boolean ignoresPunctuation() {
+    public boolean ignoresPunctuation() {
         return ignorePunctuation;
     }
 
-    public DerpyWriter(Dictionary dictionary) {
-        this.dictionary = dictionary;
-        targetSentencesPerParagraph = 5;
+    public void setStrictMode(boolean strictMode) {
+        this.strictMode = strictMode;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Sets the random used to pick words. Using a seeded random gives the same
+     * story for the same dictionary.
+     *
+     * @param random
+     */
+    public void setRandom(Random random) {
+        this.random = random;
     }
 
     /**
@@ -66,22 +120,38 @@ public class DerpyWriter {
      * @return A list of strings that contain the generated story
      */
     List<String> generateStory(int wordCount) {
+        return generateStory(wordCount, null);
+    }
+
+    /**
+     * Method that generates a defined length of words. Each paragraph is handed
+     * to the listener as soon as it is finished. With a listener the paragraphs
+     * are not kept, so a story of any length is written in the same memory.
+     *
+     * @param wordCount the number of words you want to be in a story
+     * @param listener Listener told about each paragraph. May be null.
+     * @return A list of strings that contain the generated story. Empty if a
+     * listener is given.
+     */
+    List<String> generateStory(int wordCount, ParagraphListener listener) {
+        long start = System.nanoTime();
         List<String> story = new ArrayList<>();
+        int paragraphs = 0;
         int sentenceCount = 0;
-        Word[] lastWords = new Word[Word.accuracyNumber];
+        Word[] lastWords = new Word[getAccuracy()];
         String paragraph = "";
 
         for (int i = 0; i < lastWords.length; i++) {
-            lastWords[i] = LogicFactory.getRandomWord(dictionary);
+            lastWords[i] = LogicFactory.getRandomWord(dictionary, random);
         }
 
         boolean isFirstParagraph = true;
         for (int i = 0; i < wordCount; i++) {
             Word lastWord;
 
-            lastWord = LogicFactory.getRandomWord(lastWords, dictionary);
+            lastWord = LogicFactory.getRandomWord(lastWords, dictionary, random, ignorePunctuation, strictMode);
 
-            if (!isFirstParagraph || ignoreFirstParagraph()) {
+            if (!isFirstParagraph) {
                 if (lastWords.length > 1 && DerpyReader.isEndPunctuation(lastWords[1])) {
                     paragraph += DerpyFormatter.captializeWord(lastWord) + " ";
                 } else {
@@ -104,11 +174,16 @@ public class DerpyWriter {
 
                 //Add "paragraph" to story
                 if (!isFirstParagraph) {
-                    story.add(paragraph.toString());
+                    if (listener != null) {
+                        listener.paragraphWritten(paragraph);
+                    } else {
+                        story.add(paragraph);
+                    }
                     paragraph = "";
+                    paragraphs++;
 
-                    if (DerpyManager.isVERBOSE()) {
-                        System.out.println("Wrote Paragraph " + story.size() + "...");
+                    if (verbose) {
+                        System.out.println("Wrote Paragraph " + paragraphs + "...");
                     }
                 } else {
                     isFirstParagraph = false;
@@ -117,15 +192,23 @@ public class DerpyWriter {
             }
         }
 
-        story.add(paragraph); //Adds remaining paragraph
+        if (listener != null) { //Adds remaining paragraph
+            listener.paragraphWritten(paragraph);
+        } else {
+            story.add(paragraph);
+        }
+
+        DerpyManager.getMetrics().addGeneration(wordCount, System.nanoTime() - start);
 
         return story;
     }
 
-    private boolean ignoreFirstParagraph() {
-        boolean ignore = DerpyManager.getFileInputFormat() == DerpyFormatter.DERPY_FORMAT_HTML;
+    /**
+     * Listener for paragraphs as they are written.
+     */
+    public interface ParagraphListener {
 
-        return ignore;
+        void paragraphWritten(String paragraph);
     }
 
 }
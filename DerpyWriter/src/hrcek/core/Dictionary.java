@@ -25,7 +25,15 @@ package hrcek.core;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class holds words and acts as a buffer between the reader and writer. It
@@ -37,34 +45,88 @@ import java.util.List;
 public class Dictionary implements Serializable {
 
     private volatile List<Word> words;
-    private volatile List<Word> lastWords;
+    private volatile Word[] lastWords;
+    private int lastHead = 0;
+    private volatile Map<String, Integer> index;
+    private transient volatile Word[] frozenWords;
     static final long serialVersionUID = -3010695769693014199L;
     
+    public static final String UNKNOWN = "<unk>";
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    
     int lastPunctuation = 0;
+    private int accuracy;
+    private int vocabularyLimit = 0;
+    private int epoch = 0;
+    private int[] born = new int[0];
+    private long entriesAdded = 0;
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private transient NextWordDistribution.Cache cache;
 
     /**
-     * This is the default constructor for the dictionary.
+     * This is the default constructor for the dictionary. The dictionary gets
+     * the default accuracy from Word.accuracyNumber.
      */
     public Dictionary() {
-        words = new ArrayList<>();
-        lastWords = new ArrayList<Word>();
-
-        for (int i = 0; i < Word.accuracyNumber; i++) {
-            lastWords.add(Word.wordNotFound);
-        }
+        this(Word.accuracyNumber);
+    }
 
+    /**
+     * Creates a dictionary that counts the given number of past words for
+     * every word read.
+     * 
+     * @param accuracy The accuracy of the dictionary.
+     */
+    public Dictionary(int accuracy) {
+        this.accuracy = accuracy;
+        words = new ArrayList<>();
+        index = new ConcurrentHashMap<>();
+        regenerateLastWords();
     }
     
     /**
-     * This method is needed if the word accuracy has changed. This allows the
-     * reader and writer to function properly.
+     * This method forgets the words last read, so the next word read does not
+     * follow them.
+     * 
+     * The words last read are kept in a ring. The word read last is at
+     * lastHead and the words before it follow, so adding a word only moves
+     * lastHead back one place instead of shifting every word.
      */
     public void regenerateLastWords(){
-        lastWords = new ArrayList<Word>();
+        Word[] fresh = new Word[getAccuracy()];
+        Arrays.fill(fresh, Word.wordNotFound);
+        lastHead = 0;
+        lastWords = fresh;
+    }
+
+    /**
+     * Gets the number of past words counted for every word read. Stories can
+     * be written with this accuracy or any lower one.
+     * 
+     * @return The accuracy of the dictionary.
+     */
+    public synchronized int getAccuracy() {
+        return accuracy;
+    }
 
-        for (int i = 0; i < Word.accuracyNumber; i++) {
-            lastWords.add(Word.wordNotFound);
+    /**
+     * Sets the number of past words counted for every word read. Words hold
+     * counts for the accuracy they were read with, so this can only be changed
+     * while the dictionary is empty.
+     * 
+     * @param accuracy The accuracy of the dictionary.
+     * @throws IllegalStateException If the dictionary already holds words.
+     */
+    public synchronized void setAccuracy(int accuracy) {
+        if (accuracy == this.accuracy) {
+            return;
+        }
+        if (getSize() > 0) {
+            throw new IllegalStateException("The accuracy of a dictionary can only be changed while it is empty");
         }
+        this.accuracy = accuracy;
+        regenerateLastWords();
+        changed();
     }
     
     /**
@@ -73,7 +135,252 @@ public class Dictionary implements Serializable {
      * @param word Word to be added.
      */
     public synchronized void addWord(Word word){
+        if (!index.containsKey(word.getName())) {
+            index.put(word.getName(), words.size());
+        }
+        if (born.length <= words.size()) {
+            born = Arrays.copyOf(born, Math.max(16, born.length * 2));
+        }
+        born[words.size()] = epoch;
         words.add(word);
+        changed();
+    }
+
+    /**
+     * Sets how many next word distributions are cached for writing. 0 turns the
+     * cache off.
+     * 
+     * @param cacheSize Most distributions to cache.
+     */
+    public synchronized void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        cache = null;
+    }
+
+    /**
+     * Gets the cache of next word distributions used while writing.
+     * 
+     * @return The cache.
+     */
+    public synchronized NextWordDistribution.Cache getDistributionCache() {
+        if (cache == null) {
+            cache = new NextWordDistribution.Cache(cacheSize);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cached distributions. This must be called whenever the counts
+     * change.
+     */
+    protected synchronized void changed() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Sets the most words the dictionary may hold while reading. When there
+     * are more, the least used words are evicted and their counts are given to
+     * the word UNKNOWN. 0 means no limit.
+     * 
+     * @param vocabularyLimit Most words to hold.
+     */
+    public synchronized void setVocabularyLimit(int vocabularyLimit) {
+        this.vocabularyLimit = vocabularyLimit;
+    }
+
+    public synchronized int getVocabularyLimit() {
+        return vocabularyLimit;
+    }
+
+    /**
+     * Gets the eviction epoch. Word ids change when words are evicted, so ids
+     * are only good for the epoch they were looked up in.
+     * 
+     * @return The number of evictions so far.
+     */
+    public synchronized int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Evicts words if there are more than the vocabulary limit. Evicting takes
+     * the limit down by a sixteenth so it does not happen for every new word.
+     * The least used words that have lived through an eviction go first, so a
+     * new word gets a chance to be seen again. Punctuation is never evicted.
+     * 
+     * Each evicted word's rarity and words after are added to UNKNOWN, every
+     * words after count of it is moved to UNKNOWN and the rest of the words
+     * move down to fill the gaps.
+     */
+    private void evictIfNeeded() {
+        if (vocabularyLimit <= 0 || words.size() <= vocabularyLimit) {
+            return;
+        }
+
+        Word unknown = getWord(UNKNOWN);
+        int target = Math.max(1, vocabularyLimit - vocabularyLimit / 16);
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            Word word = words.get(i);
+            if (word != unknown && !DerpyReader.isPunctuation(word)) {
+                candidates.add(i);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer a, Integer b) {
+                boolean aNew = born[a] == epoch;
+                boolean bNew = born[b] == epoch;
+                if (aNew != bNew) {
+                    return aNew ? 1 : -1;
+                }
+                return Integer.compare(words.get(a).getRarity(), words.get(b).getRarity());
+            }
+        });
+
+        Set<String> evicted = new HashSet<>();
+        boolean[] gone = new boolean[words.size()];
+        for (int i = 0; i < candidates.size() && words.size() - evicted.size() > target; i++) {
+            Word word = words.get(candidates.get(i));
+            evicted.add(word.getName());
+            gone[candidates.get(i)] = true;
+        }
+
+        for (Word word : words) {
+            word.thaw(); //Successor lists hold ids, which are about to change
+        }
+        for (int i = 0; i < words.size(); i++) {
+            if (gone[i]) {
+                unknown.mergeFrom(words.get(i));
+            }
+        }
+
+        compact(gone);
+
+        for (Word word : words) {
+            redirect(word, evicted);
+        }
+        redirect(Word.wordNotFound, evicted);
+        for (int i = 0; i < lastWords.length; i++) {
+            if (evicted.contains(lastWords[i].getName())) {
+                lastWords[i] = unknown;
+            }
+        }
+
+        epoch++;
+        DerpyManager.getMetrics().addEvictions(evicted.size());
+    }
+
+    /**
+     * Removes words from the word list, moving the rest down to fill the gaps.
+     * Words must be thawed first, since their ids change.
+     * 
+     * @param gone Which words to remove, by id.
+     */
+    private void compact(boolean[] gone) {
+        List<Word> kept = new ArrayList<>();
+        Map<String, Integer> keptIndex = new ConcurrentHashMap<>();
+        int[] keptBorn = new int[born.length];
+        for (int i = 0; i < words.size(); i++) {
+            if (!gone[i]) {
+                if (!keptIndex.containsKey(words.get(i).getName())) {
+                    keptIndex.put(words.get(i).getName(), kept.size());
+                }
+                keptBorn[kept.size()] = born[i];
+                kept.add(words.get(i));
+            }
+        }
+        frozenWords = null;
+        words = kept;
+        index = keptIndex;
+        born = keptBorn;
+    }
+
+    /**
+     * Adds the counts of a word to the word of the same name, adding the word
+     * if there is none.
+     * 
+     * @param word Word with the counts to add.
+     */
+    public synchronized void mergeWord(Word word) {
+        Integer id = index.get(word.getName());
+        if (id == null) {
+            addWord(word);
+        } else {
+            words.get(id).mergeFrom(word);
+            changed();
+        }
+    }
+
+    /**
+     * Takes the counts of a word away from the word of the same name. Words
+     * left with no uses stay until removeUnusedWords is called.
+     * 
+     * @param word Word with the counts to take away.
+     */
+    public synchronized void subtractWord(Word word) {
+        Integer id = index.get(word.getName());
+        if (id != null) {
+            words.get(id).subtract(word);
+            changed();
+        }
+    }
+
+    /**
+     * Removes the words that are no longer used after counts were taken away.
+     * 
+     * @return The number of words removed.
+     */
+    public synchronized int removeUnusedWords() {
+        boolean[] gone = new boolean[words.size()];
+        int removed = 0;
+        for (int i = 0; i < words.size(); i++) {
+            if (words.get(i).getRarity() <= 0) {
+                gone[i] = true;
+                removed++;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+
+        for (Word word : words) {
+            word.thaw();
+        }
+        compact(gone);
+        for (int i = 0; i < lastWords.length; i++) {
+            if (!index.containsKey(lastWords[i].getName())) {
+                lastWords[i] = Word.wordNotFound;
+            }
+        }
+        epoch++;
+        changed();
+        return removed;
+    }
+
+    /**
+     * Moves the words after counts of evicted words to UNKNOWN.
+     */
+    private static void redirect(Word word, Set<String> evicted) {
+        for (int i = 0; i < word.getAccuracy(); i++) {
+            Map<String, Integer> map = word.getWordsAfter(i);
+            int moved = 0;
+            Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Integer> entry = entries.next();
+                if (evicted.contains(entry.getKey())) {
+                    moved += entry.getValue();
+                    entries.remove();
+                }
+            }
+            if (moved > 0) {
+                Integer count = map.get(UNKNOWN);
+                map.put(UNKNOWN, count == null ? moved : count + moved);
+            }
+        }
     }
 
     /**
@@ -93,6 +400,41 @@ public class Dictionary implements Serializable {
         return totalSize;
     }
 
+    /**
+     * Gets the number of entries made in the lists of words that follow while
+     * reading, since the dictionary was made or last drained.
+     * 
+     * @return The number of entries added.
+     */
+    synchronized long getEntriesAdded() {
+        return entriesAdded;
+    }
+
+    /**
+     * Removes every word from the dictionary and hands them back. The words
+     * last read are replaced by new, unused words of the same names, so the
+     * next words read are still counted after them. Ids change, so the epoch
+     * moves on.
+     * 
+     * @return The words that were in the dictionary.
+     */
+    synchronized List<Word> drain() {
+        List<Word> drained = words;
+        words = new ArrayList<>();
+        index = new ConcurrentHashMap<>();
+        frozenWords = null;
+        born = new int[0];
+        entriesAdded = 0;
+        epoch++;
+        for (int i = 0; i < lastWords.length; i++) {
+            if (lastWords[i] != Word.wordNotFound) {
+                lastWords[i] = getWord(lastWords[i].getName());
+            }
+        }
+        changed();
+        return drained;
+    }
+
     /**
      * Gets the word at index.
      * 
@@ -103,24 +445,107 @@ public class Dictionary implements Serializable {
         return words.get(index);
     }
 
+    /**
+     * Gets a word by id without taking the dictionary lock. This is for the
+     * ids in the successor lists of frozen words, which are looked up while
+     * writing from many threads at once. Words added since the dictionary
+     * was frozen are looked up the normal way.
+     * 
+     * @param id The id of the word.
+     * @return The word with the id.
+     */
+    Word getFrozenWord(int id) {
+        Word[] table = frozenWords;
+        if (table != null && id < table.length) {
+            return table[id];
+        }
+        return getWord(id);
+    }
+
+    /**
+     * Keeps a copy of the word list for getFrozenWord. This must be called
+     * once the words are frozen.
+     */
+    protected synchronized void snapshotFrozenWords() {
+        frozenWords = words.toArray(new Word[words.size()]);
+    }
+
     /**
      * Adds a word based on a string representation.
      * 
      * @param name 
      */
     public synchronized void addWord(String name) {
-        for (int i = Word.accuracyNumber - 1; i >= 0; i--) {
-            lastWords.get(i).addWordAfter(getWord(name), i);
+        addToken(getWord(name));
+        evictIfNeeded();
+        changed();
+
+        DerpyManager.getMetrics().addTokens(1);
+        DerpyManager.getMetrics().addTransitions(accuracy);
+    }
+
+    /**
+     * Adds a run of words by their ids. The whole run is added while holding
+     * the dictionary lock once, so runs added from different threads do not get
+     * mixed together. The ids must be from the current epoch.
+     * 
+     * @param ids Ids of the words, as returned by getWordId.
+     * @param from First index in ids to add.
+     * @param to Index in ids to stop at (exclusive).
+     */
+    public synchronized void addTokens(int[] ids, int from, int to) {
+        List<Word> list = words;
+        for (int i = from; i < to; i++) {
+            addToken(list.get(ids[i]));
         }
+        changed();
 
-        for (int i = Word.accuracyNumber - 1; i > 0; i--) {
-            lastWords.set(i, lastWords.get(i - 1));
+        DerpyManager.getMetrics().addTokens(to - from);
+        DerpyManager.getMetrics().addTransitions((long) (to - from) * accuracy);
+    }
+
+    /**
+     * Adds a run of words by their ids, looking them up again by name if words
+     * were evicted since the ids were looked up. Words are evicted afterwards
+     * if there are too many.
+     * 
+     * @param names The string representations of the words.
+     * @param ids Ids of the words, as returned by getWordIds.
+     * @param epoch The epoch returned by getWordIds.
+     * @param from First index to add.
+     * @param to Index to stop at (exclusive).
+     */
+    public synchronized void addTokens(String[] names, int[] ids, int epoch, int from, int to) {
+        if (epoch != getEpoch()) {
+            for (int i = from; i < to; i++) {
+                ids[i] = getWordId(names[i]);
+            }
         }
-        lastWords.set(0, getWord(name));
-        lastWords.get(0).increaseRarity();
+        addTokens(ids, from, to);
+        evictIfNeeded();
+    }
+
+    private void addToken(Word word) {
+        Word[] last = lastWords;
+        int length = last.length;
+        if (length > 0) {
+            int slot = lastHead;
+            for (int i = 0; i < length; i++) {
+                if (last[slot].countWordAfter(word, i)) {
+                    entriesAdded++;
+                }
+                if (++slot == length) {
+                    slot = 0;
+                }
+            }
+
+            lastHead = lastHead == 0 ? length - 1 : lastHead - 1;
+            last[lastHead] = word; //Takes the place of the oldest word
+        }
+        word.increaseRarity();
         
-        if(DerpyReader.isPunctuation(getWord(name))){
-            ((Punctuation)getWord(name)).addLength(lastPunctuation);
+        if(DerpyReader.isPunctuation(word)){
+            ((Punctuation)word).addLength(lastPunctuation);
             lastPunctuation = 0;
         } else{
             lastPunctuation++;
@@ -136,23 +561,75 @@ public class Dictionary implements Serializable {
      * @return Word corresponding to the string representation.
      */
     public synchronized Word getWord(String name) {
-        for (Word word : words) {
-            if (word.getName().equals(name)) {
-                return word;
-            }
+        return words.get(getWordId(name));
+    }
+
+    /**
+     * Gets the id of a word. The id is the index of the word in the word list.
+     * It the word does not exist, it is created.
+     * 
+     * @param name The string representation of the word.
+     * @return The id of the word.
+     */
+    public synchronized int getWordId(String name) {
+        Integer id = index.get(name);
+        if (id != null) {
+            return id;
         }
 
+        Word newWord = new Word(name, accuracy);
         for(String s: Punctuation.punctuations){
             if(s.equals(name)){
-                Punctuation newWord = new Punctuation(name);
-                words.add(newWord);
-                return newWord;
+                newWord = new Punctuation(name, accuracy);
             }
         }
-        
-        Word newWord = new Word(name);
-        words.add(newWord);
-        return newWord;
+        newWord.rarity = 0;
+
+        addWord(newWord);
+        return words.size() - 1;
+    }
+
+    /**
+     * Gets the id of a word without creating it.
+     * 
+     * @param name The string representation of the word.
+     * @return The id of the word, or -1 if it is not in the dictionary.
+     */
+    public int findWordId(String name) {
+        Integer id = index.get(name); //The index can be read without the lock
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the ids of a run of words while holding the dictionary lock once.
+     * 
+     * @param names The string representations of the words.
+     * @param count Number of names to look up.
+     * @param ids Array the ids are written to.
+     * @return The epoch the ids belong to.
+     */
+    public synchronized int getWordIds(String[] names, int count, int[] ids) {
+        for (int i = 0; i < count; i++) {
+            ids[i] = getWordId(names[i]);
+        }
+        return getEpoch();
+    }
+
+    /**
+     * Freezes every word in the dictionary, replacing their words after maps
+     * with compact successor lists. This should be done once reading is
+     * finished. Words that are added to later thaw on their own.
+     * 
+     * @return Approximate bytes used by the successor lists.
+     */
+    public synchronized long freeze() {
+        long bytes = 0;
+        for (Word word : words) {
+            bytes += word.freeze(this);
+        }
+        snapshotFrozenWords();
+        changed();
+        return bytes;
     }
 
     /**
@@ -162,12 +639,7 @@ public class Dictionary implements Serializable {
      * @return If the word exists.
      */
     public synchronized boolean hasWord(String name) {
-        for (Word word : words) {
-            if (word.getName().equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        return index.containsKey(name);
     }
 
     /**
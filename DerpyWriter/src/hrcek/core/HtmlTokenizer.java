@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reader that turns HTML into plain text as it is read. Tags, comments and the
+ * contents of script and style elements are skipped, and numeric and named
+ * entities are decoded, all in one pass over the characters. Tags that break
+ * the text (paragraphs, line breaks, cells...) become a space, while inline
+ * tags like b and a are dropped so the words they wrap stay whole.
+ *
+ * The tokenizer only ever looks a few characters ahead, so tags and entities
+ * split across reads of the underlying reader are handled and memory use does
+ * not depend on the size of the document.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class HtmlTokenizer extends Reader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    private static final Map<String, Integer> ENTITIES = new HashMap<>();
+    private static final Set<String> INLINE_TAGS = new HashSet<>();
+
+    static {
+        //The Latin-1 entities are in code point order starting at 160.
+        String[] latin = ("nbsp iexcl cent pound curren yen brvbar sect uml copy ordf laquo not shy reg macr "
+                + "deg plusmn sup2 sup3 acute micro para middot cedil sup1 ordm raquo frac14 frac12 frac34 iquest "
+                + "Agrave Aacute Acirc Atilde Auml Aring AElig Ccedil Egrave Eacute Ecirc Euml Igrave Iacute Icirc Iuml "
+                + "ETH Ntilde Ograve Oacute Ocirc Otilde Ouml times Oslash Ugrave Uacute Ucirc Uuml Yacute THORN szlig "
+                + "agrave aacute acirc atilde auml aring aelig ccedil egrave eacute ecirc euml igrave iacute icirc iuml "
+                + "eth ntilde ograve oacute ocirc otilde ouml divide oslash ugrave uacute ucirc uuml yacute thorn yuml").split(" ");
+        for (int i = 0; i < latin.length; i++) {
+            ENTITIES.put(latin[i], 160 + i);
+        }
+
+        //Greek letters, with the gap at 930 where there is no capital final sigma.
+        String[] greek = ("Alpha Beta Gamma Delta Epsilon Zeta Eta Theta Iota Kappa Lambda Mu Nu Xi Omicron Pi Rho - "
+                + "Sigma Tau Upsilon Phi Chi Psi Omega").split(" ");
+        for (int i = 0; i < greek.length; i++) {
+            if (!greek[i].equals("-")) {
+                ENTITIES.put(greek[i], 913 + i);
+                ENTITIES.put(greek[i].toLowerCase(), 945 + i);
+            }
+        }
+        ENTITIES.put("sigmaf", 962);
+
+        String[] other = ("quot 34 amp 38 apos 39 lt 60 gt 62 OElig 338 oelig 339 Scaron 352 scaron 353 Yuml 376 "
+                + "fnof 402 circ 710 tilde 732 thetasym 977 upsih 978 piv 982 "
+                + "ensp 8194 emsp 8195 thinsp 8201 zwnj 8204 zwj 8205 lrm 8206 rlm 8207 ndash 8211 mdash 8212 "
+                + "lsquo 8216 rsquo 8217 sbquo 8218 ldquo 8220 rdquo 8221 bdquo 8222 dagger 8224 Dagger 8225 "
+                + "bull 8226 hellip 8230 permil 8240 prime 8242 Prime 8243 lsaquo 8249 rsaquo 8250 oline 8254 "
+                + "frasl 8260 euro 8364 image 8465 weierp 8472 real 8476 trade 8482 alefsym 8501 "
+                + "larr 8592 uarr 8593 rarr 8594 darr 8595 harr 8596 crarr 8629 lArr 8656 uArr 8657 rArr 8658 "
+                + "dArr 8659 hArr 8660 forall 8704 part 8706 exist 8707 empty 8709 nabla 8711 isin 8712 notin 8713 "
+                + "ni 8715 prod 8719 sum 8721 minus 8722 lowast 8727 radic 8730 prop 8733 infin 8734 ang 8736 "
+                + "and 8743 or 8744 cap 8745 cup 8746 int 8747 there4 8756 sim 8764 cong 8773 asymp 8776 ne 8800 "
+                + "equiv 8801 le 8804 ge 8805 sub 8834 sup 8835 nsub 8836 sube 8838 supe 8839 oplus 8853 "
+                + "otimes 8855 perp 8869 sdot 8901 lceil 8968 rceil 8969 lfloor 8970 rfloor 8971 lang 9001 "
+                + "rang 9002 loz 9674 spades 9824 clubs 9827 hearts 9829 diams 9830").split(" ");
+        for (int i = 0; i < other.length; i += 2) {
+            ENTITIES.put(other[i], Integer.parseInt(other[i + 1]));
+        }
+
+        for (String tag : ("a abbr acronym b bdi bdo big cite code del dfn em font i ins kbd mark q s samp small "
+                + "span strike strong sub sup tt u var").split(" ")) {
+            INLINE_TAGS.add(tag);
+        }
+    }
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingPosition;
+
+    /**
+     * Creates a tokenizer reading HTML from a reader.
+     *
+     * @param in The HTML to read.
+     */
+    public HtmlTokenizer(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int written = 0;
+        while (written < len) {
+            if (pendingPosition < pending.length()) {
+                cbuf[off + written++] = pending.charAt(pendingPosition++);
+                continue;
+            }
+            pending.setLength(0);
+            pendingPosition = 0;
+
+            int c = next();
+            if (c < 0) {
+                break;
+            }
+
+            if (c == '<') {
+                c = readMarkup();
+                if (c < 0) {
+                    continue;
+                }
+            } else if (c == '&') {
+                c = readEntity();
+            }
+
+            if (Character.isWhitespace(c) || c == 160) {
+                c = ' ';
+            }
+            cbuf[off + written++] = (char) c;
+        }
+
+        return written == 0 ? -1 : written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads what follows a '<'. Markup is skipped.
+     *
+     * @return The character to write in place of the markup, or -1 if nothing
+     * should be written.
+     */
+    private int readMarkup() throws IOException {
+        int c = peek(0);
+
+        if (c == '!') {
+            if (peek(1) == '-' && peek(2) == '-') {
+                position += 3;
+                skipComment();
+            } else {
+                skipPast('>'); //Doctype or CDATA
+            }
+            return ' ';
+        }
+        if (c == '?') {
+            skipPast('>');
+            return ' ';
+        }
+
+        boolean closing = c == '/';
+        int start = closing ? 1 : 0;
+        if (!isLetter(peek(start))) {
+            return '<'; //Not a tag, just a less than sign.
+        }
+
+        position += start;
+        StringBuilder name = new StringBuilder();
+        while (isLetter(c = peek(0)) || (c >= '0' && c <= '9')) {
+            name.append(Character.toLowerCase((char) c));
+            position++;
+        }
+        skipTag();
+
+        String tag = name.toString();
+        if (!closing && (tag.equals("script") || tag.equals("style"))) {
+            skipRawText(tag);
+        }
+
+        return INLINE_TAGS.contains(tag) ? -1 : ' ';
+    }
+
+    /**
+     * Reads what follows a '&'. Unknown entities are written as they were.
+     *
+     * @return The first character to write. Any more are left in pending.
+     */
+    private int readEntity() throws IOException {
+        int length = 0;
+        int c;
+        while (length < MAX_ENTITY_LENGTH && (isLetter(c = peek(length)) || (c >= '0' && c <= '9') || (length == 0 && c == '#'))) {
+            length++;
+        }
+        if (length == 0 || peek(length) != ';') {
+            return '&';
+        }
+
+        String name = new String(buffer, position, length);
+        int codePoint = -1;
+        if (name.charAt(0) == '#') {
+            try {
+                if (name.length() > 2 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')) {
+                    codePoint = Integer.parseInt(name.substring(2), 16);
+                } else {
+                    codePoint = Integer.parseInt(name.substring(1));
+                }
+            } catch (NumberFormatException e) {
+                codePoint = -1;
+            }
+        } else {
+            Integer value = ENTITIES.get(name);
+            if (value != null) {
+                codePoint = value;
+            }
+        }
+
+        if (codePoint <= 0 || !Character.isValidCodePoint(codePoint)) {
+            return '&';
+        }
+
+        position += length + 1;
+        char[] chars = Character.toChars(codePoint);
+        if (chars.length > 1) {
+            pending.append(chars[1]);
+        }
+        return chars[0];
+    }
+
+    /**
+     * Skips the rest of a tag, including quoted attribute values that may
+     * hold a '>'.
+     */
+    private void skipTag() throws IOException {
+        int quote = 0;
+        int c;
+        while ((c = next()) >= 0) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    private void skipComment() throws IOException {
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == '-' && peek(0) == '-' && peek(1) == '>') {
+                position += 2;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips the contents of a script or style element up to and including
+     * its closing tag.
+     */
+    private void skipRawText(String tag) throws IOException {
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == '<' && peek(0) == '/' && matchesIgnoreCase(1, tag)) {
+                skipTag();
+                return;
+            }
+        }
+    }
+
+    private void skipPast(char end) throws IOException {
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == end) {
+                return;
+            }
+        }
+    }
+
+    private boolean matchesIgnoreCase(int offset, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            int c = peek(offset + i);
+            if (c < 0 || Character.toLowerCase((char) c) != text.charAt(i)) {
+                return false;
+            }
+        }
+        int c = peek(offset + text.length());
+        return !isLetter(c) && !(c >= '0' && c <= '9');
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private int next() throws IOException {
+        if (position >= limit && !fill(1)) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Looks at a character ahead of the current position without reading it.
+     *
+     * @param offset How far ahead to look. Must be less than the buffer size.
+     * @return The character or -1 if the input ends before it.
+     */
+    private int peek(int offset) throws IOException {
+        if (position + offset >= limit && !fill(offset + 1)) {
+            return -1;
+        }
+        return buffer[position + offset];
+    }
+
+    /**
+     * Makes sure at least count characters are buffered past the position.
+     *
+     * @return False if the input ends first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+}
@@ -23,8 +23,6 @@
  */
 package hrcek.core;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -89,49 +87,65 @@ public class LogicFactory {
 
     /**
      * This function picks a random word based upon previously used words. It
-     * weighs words based on their likelihood to appear after x words.
+     * weighs words based on their likelihood to appear after x words (see
+     * NextWordDistribution). The punctuation and strict mode settings are
+     * taken from the DerpyManager.
      *
-     * @param pastWords Array of past words. The size of the array is based on
-     * accuracy.
+     * @param pastWords Array of past words. The size of the array is the
+     * accuracy used, which may be lower than the accuracy of the dictionary.
      * @param dictionary The dictionary pulling from.
      * @return
      */
     public synchronized static Word getRandomWord(Word[] pastWords, Dictionary dictionary) {
-        List<Word> wordList = new ArrayList();
-
-        for (String word : pastWords[0].getWordsAfter(0).keySet()) {
-            int count = pastWords[0].getWordsAfter(0).get(word);
-            for (int i = 0; i < count; i++) {
-                wordList.add(dictionary.getWord(word));
-            }
+        return getRandomWord(pastWords, dictionary, random, DerpyManager.isIgnorePunctuation(), DerpyManager.inStrictMode());
+    }
 
-        }
+    /**
+     * This function picks a random word based upon previously used words. It
+     * does not touch any global settings, so several writers may call it at
+     * the same time with their own random and settings.
+     *
+     * @param pastWords Array of past words. The size of the array is the
+     * accuracy used, which may be lower than the accuracy of the dictionary.
+     * @param dictionary The dictionary pulling from.
+     * @param random Random used to pick the word.
+     * @param ignorePunctuation If end punctuation may be placed close together.
+     * @param strict If a dead end should give wordNotFound instead of a random
+     * word.
+     * @return The picked word.
+     */
+    public static Word getRandomWord(Word[] pastWords, Dictionary dictionary, Random random, boolean ignorePunctuation, boolean strict) {
+        long start = System.nanoTime();
+        Word word = pickRandomWord(pastWords, dictionary, random, ignorePunctuation, strict);
+        DerpyManager.getMetrics().recordSample(System.nanoTime() - start);
+        return word;
+    }
 
-        for (int i = 1; i < Word.accuracyNumber; i++) {
-            for (String word : pastWords[i].getWordsAfter(i).keySet()) {
-                int count = pastWords[i].getWordsAfter(i).get(word);
-                for (int j = 0; j < count && wordList.contains(word); j++) {
-                    if ((!word.equals(dictionary.getWord(".")) && !word.equals(dictionary.getWord("!")) && !word.equals(dictionary.getWord("?"))) || DerpyWriter.ignoresPunctuation()) {
-                        wordList.add(dictionary.getWord(word));
-                    }
-                }
-            }
+    private static Word pickRandomWord(Word[] pastWords, Dictionary dictionary, Random random, boolean ignorePunctuation, boolean strict) {
+        Word picked;
+        int accuracy = Math.min(pastWords.length, dictionary.getAccuracy());
+        if (accuracy == 1 && pastWords[0].isFrozen()) {
+            picked = pastWords[0].sampleWordAfter(0, random); //Nothing to combine
+        } else {
+            NextWordDistribution distribution = dictionary.getDistributionCache().get(pastWords, accuracy, dictionary, ignorePunctuation);
+            picked = distribution == null ? null : distribution.sample(random);
         }
 
-        for (int i = Word.accuracyNumber - 1; i > 0; i--) {
+        for (int i = pastWords.length - 1; i > 0; i--) {
             pastWords[i] = pastWords[i - 1];
         }
 
-        if (wordList.size() > 0) {
-            pastWords[0] = wordList.get(getRandomInt(wordList.size()));
+        if (picked != null) {
+            pastWords[0] = picked;
             return pastWords[0];
         } else {
             DerpyLogger.warning(pastWords[0].getName() + " has no words following it!");
-            if (DerpyManager.inStrictMode()) {
+            DerpyManager.getMetrics().deadEnd();
+            if (strict) {
                 pastWords[0] = Word.wordNotFound;
                 return Word.wordNotFound;
             } else {
-                pastWords[0] = getRandomWord(dictionary);
+                pastWords[0] = getRandomWord(dictionary, random);
                 return pastWords[0];
             }
         }
@@ -145,7 +159,19 @@ public class LogicFactory {
      * @return A random word.
      */
     public synchronized static Word getRandomWord(Dictionary dictionary) {
-        return dictionary.getWord(getRandomInt(dictionary.getSize()));
+        return getRandomWord(dictionary, random);
+    }
+
+    /**
+     * This function randomly gets a word form the dictionary using the given
+     * random.
+     *
+     * @param dictionary Dictionary to be used.
+     * @param random Random used to pick the word.
+     * @return A random word.
+     */
+    public static Word getRandomWord(Dictionary dictionary, Random random) {
+        return dictionary.getWord(random.nextInt(dictionary.getSize()));
     }
 
 }
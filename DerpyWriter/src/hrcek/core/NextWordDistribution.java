@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class is the chance of each word coming next after a list of past
+ * words, ready to be sampled. The words that followed the last word are the
+ * candidates. Each candidate starts with the number of times it followed the
+ * last word, and gets the number of times it followed each earlier past word
+ * at that distance added on. End punctuation only gets the earlier counts when
+ * punctuation is ignored.
+ *
+ * The counts are kept as a running total, so picking a word is a binary
+ * search.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class NextWordDistribution {
+
+    private final Word[] words;
+    private final long[] cumulative;
+
+    private NextWordDistribution(Word[] words, long[] cumulative) {
+        this.words = words;
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Works out the distribution for a list of past words.
+     *
+     * @param pastWords Past words, the last word first.
+     * @param accuracy Number of past words to use.
+     * @param dictionary The dictionary the words are from.
+     * @param ignorePunctuation If end punctuation gets the earlier counts.
+     * @return The distribution, or null if no words followed the last word.
+     */
+    public static NextWordDistribution build(Word[] pastWords, int accuracy, Dictionary dictionary, boolean ignorePunctuation) {
+        Word.Successors first = pastWords[0].getSuccessors(0);
+        int n = first.size();
+        if (n == 0) {
+            return null;
+        }
+
+        long[] counts = new long[n];
+        for (int k = 0; k < n; k++) {
+            counts[k] = first.getCount(k);
+        }
+
+        for (int i = 1; i < accuracy; i++) {
+            for (int k = 0; k < n; k++) {
+                if (ignorePunctuation || !isEndPunctuation(first.getName(k))) {
+                    counts[k] += pastWords[i].getCountAfter(i, first, k);
+                }
+            }
+        }
+
+        Word[] words = new Word[n];
+        long[] cumulative = new long[n];
+        long total = 0;
+        for (int k = 0; k < n; k++) {
+            words[k] = first.getWord(k, dictionary);
+            total += counts[k];
+            cumulative[k] = total;
+        }
+        return new NextWordDistribution(words, cumulative);
+    }
+
+    static boolean isEndPunctuation(String name) {
+        for (String punct : Punctuation.endPunctuations) {
+            if (punct.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks a word with a chance based on its combined count.
+     *
+     * @param random Random used to pick the word.
+     * @return The picked word.
+     */
+    public Word sample(Random random) {
+        long total = cumulative[cumulative.length - 1];
+        long r = total <= Integer.MAX_VALUE ? random.nextInt((int) total) : (long) (random.nextDouble() * total);
+        int k = Arrays.binarySearch(cumulative, r + 1);
+        return words[k >= 0 ? k : -k - 1];
+    }
+
+    /**
+     * Gets the number of candidate words.
+     *
+     * @return The number of candidates.
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * A bounded cache of distributions, keyed by the names of the past words.
+     * The least recently used distribution is dropped when it is full. A
+     * dictionary clears its cache whenever it changes.
+     */
+    public static class Cache {
+
+        private final Map<Context, NextWordDistribution> entries;
+        private final int capacity;
+
+        /**
+         * Creates a cache.
+         *
+         * @param capacity Most distributions to hold. 0 turns the cache off.
+         */
+        public Cache(final int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<Context, NextWordDistribution>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Context, NextWordDistribution> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * Gets the distribution for a list of past words, working it out if it
+         * is not cached.
+         *
+         * @param pastWords Past words, the last word first.
+         * @param accuracy Number of past words to use.
+         * @param dictionary The dictionary the words are from.
+         * @param ignorePunctuation If end punctuation gets the earlier counts.
+         * @return The distribution, or null if no words followed the last word.
+         */
+        public NextWordDistribution get(Word[] pastWords, int accuracy, Dictionary dictionary, boolean ignorePunctuation) {
+            if (capacity <= 0) {
+                return build(pastWords, accuracy, dictionary, ignorePunctuation);
+            }
+
+            Context context = new Context(pastWords, accuracy, ignorePunctuation);
+            NextWordDistribution distribution;
+            synchronized (this) {
+                distribution = entries.get(context);
+            }
+            if (distribution != null) {
+                DerpyManager.getMetrics().cacheHit();
+                return distribution;
+            }
+
+            DerpyManager.getMetrics().cacheMiss();
+            distribution = build(pastWords, accuracy, dictionary, ignorePunctuation);
+            if (distribution != null) {
+                synchronized (this) {
+                    entries.put(context, distribution);
+                }
+            }
+            return distribution;
+        }
+
+        /**
+         * Drops every cached distribution.
+         */
+        public synchronized void clear() {
+            entries.clear();
+        }
+
+        public synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The names of the past words and the punctuation setting.
+     */
+    private static class Context {
+
+        private final String[] names;
+        private final boolean ignorePunctuation;
+        private final int hash;
+
+        Context(Word[] pastWords, int accuracy, boolean ignorePunctuation) {
+            names = new String[accuracy];
+            for (int i = 0; i < accuracy; i++) {
+                names[i] = pastWords[i].getName();
+            }
+            this.ignorePunctuation = ignorePunctuation;
+            hash = Arrays.hashCode(names) * 2 + (ignorePunctuation ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Context)) {
+                return false;
+            }
+            Context other = (Context) o;
+            return hash == other.hash && ignorePunctuation == other.ignorePunctuation && Arrays.equals(names, other.names);
+        }
+    }
+
+}
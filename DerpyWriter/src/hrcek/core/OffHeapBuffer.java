@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a growable block of memory outside of the java heap. It is made
+ * of fixed size segments that are either direct buffers or mapped temporary
+ * files, so it is not limited to the 2GB a single buffer can hold. Values are
+ * addressed by their byte offset and never cross a segment.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class OffHeapBuffer implements Closeable {
+
+    public static final int SEGMENT_BITS = 20;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<File> files = new ArrayList<>();
+    private final File directory;
+    private final String name;
+    private long top = 0;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param directory Directory for the mapped files. Null to use direct
+     * buffers instead.
+     * @param name Prefix of the mapped file names.
+     */
+    public OffHeapBuffer(File directory, String name) {
+        this.directory = directory;
+        this.name = name;
+    }
+
+    /**
+     * Reserves space at the end of the buffer. The space is filled with zeros
+     * and does not cross a segment.
+     *
+     * @param bytes Number of bytes. This is rounded up to a multiple of 8.
+     * @return The offset of the space.
+     */
+    public long allocate(int bytes) {
+        bytes = (bytes + 7) & ~7;
+        if (bytes > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Can not allocate " + bytes + " bytes in one segment");
+        }
+        if ((top & SEGMENT_MASK) + bytes > SEGMENT_SIZE) {
+            top = (top | SEGMENT_MASK) + 1;
+        }
+        long offset = top;
+        top += bytes;
+        ensureCapacity(top);
+        return offset;
+    }
+
+    /**
+     * Makes sure the buffer can hold the given number of bytes.
+     *
+     * @param bytes The size needed.
+     */
+    public void ensureCapacity(long bytes) {
+        while ((long) segments.size() << SEGMENT_BITS < bytes) {
+            segments.add(newSegment());
+        }
+    }
+
+    private ByteBuffer newSegment() {
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+        }
+
+        try {
+            File file = File.createTempFile(name, ".seg", directory);
+            file.deleteOnExit();
+            files.add(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(SEGMENT_SIZE);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map a segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Gets the number of bytes that have been allocated.
+     *
+     * @return The end of the last allocation.
+     */
+    public long getSize() {
+        return top;
+    }
+
+    public int getInt(long offset) {
+        return segments.get((int) (offset >>> SEGMENT_BITS)).getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putInt(long offset, int value) {
+        segments.get((int) (offset >>> SEGMENT_BITS)).putInt((int) (offset & SEGMENT_MASK), value);
+    }
+
+    public long getLong(long offset) {
+        return segments.get((int) (offset >>> SEGMENT_BITS)).getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putLong(long offset, long value) {
+        segments.get((int) (offset >>> SEGMENT_BITS)).putLong((int) (offset & SEGMENT_MASK), value);
+    }
+
+    public byte get(long offset) {
+        return segments.get((int) (offset >>> SEGMENT_BITS)).get((int) (offset & SEGMENT_MASK));
+    }
+
+    public void put(long offset, byte value) {
+        segments.get((int) (offset >>> SEGMENT_BITS)).put((int) (offset & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Copies bytes into the buffer. The bytes must not cross a segment.
+     *
+     * @param offset Where the bytes go.
+     * @param bytes The bytes.
+     */
+    public void put(long offset, byte[] bytes) {
+        ByteBuffer segment = segments.get((int) (offset >>> SEGMENT_BITS)).duplicate();
+        segment.position((int) (offset & SEGMENT_MASK));
+        segment.put(bytes);
+    }
+
+    /**
+     * Copies bytes out of the buffer. The bytes must not cross a segment.
+     *
+     * @param offset Where the bytes are.
+     * @param bytes Array the bytes are copied to.
+     */
+    public void get(long offset, byte[] bytes) {
+        ByteBuffer segment = segments.get((int) (offset >>> SEGMENT_BITS)).duplicate();
+        segment.position((int) (offset & SEGMENT_MASK));
+        segment.get(bytes);
+    }
+
+    /**
+     * Drops the segments and deletes any mapped files. The memory itself is
+     * given back when the buffers are collected.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+        for (File file : files) {
+            file.delete();
+        }
+        files.clear();
+        top = 0;
+    }
+
+}
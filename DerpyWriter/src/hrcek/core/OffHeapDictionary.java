@@ -0,0 +1,713 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.ObjectStreamException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a dictionary that keeps its words and their words after counts
+ * outside of the java heap, so very large dictionaries do not fill the heap or
+ * slow down garbage collection. The memory is either direct buffers or mapped
+ * temporary files (see OffHeapBuffer).
+ *
+ * Words handed out by this dictionary are light views. Their counts are read
+ * from the off heap memory when asked for, and adding to them writes it. When a
+ * view is serialized it is replaced with a normal Word, so saved dictionaries
+ * are the same as the ones saved from a normal Dictionary.
+ *
+ * Layout:
+ * <ul>
+ * <li>names: [int length][UTF-8 bytes] for every word.</li>
+ * <li>records: [long name][int rarity][int hash][int flags][int unused]
+ * followed by one list head per distance and one for sentence lengths.</li>
+ * <li>nodes: [int word after][int count][long next], linked from the heads.</li>
+ * <li>two hash tables: name to word id, and (word, distance, word after) to
+ * node, so counting a transition does not walk the list.</li>
+ * </ul>
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class OffHeapDictionary extends Dictionary implements Closeable {
+
+    static final long serialVersionUID = -3010695769693014299L;
+
+    public static final int MAX_WORDS = 1 << 28;
+    public static final int MAX_ACCURACY = 254;
+
+    private static final int FLAG_PUNCTUATION = 1;
+    private static final int RECORD_HEADER = 24;
+    private static final int NAME_TABLE_CAPACITY = 1 << 16;
+    private static final int TRANSITION_TABLE_CAPACITY = 1 << 16;
+
+    private final File directory;
+    private final OffHeapBuffer names;
+    private final OffHeapBuffer records;
+    private final OffHeapBuffer nodes;
+    private OffHeapBuffer nameTable;
+    private int nameTableCapacity;
+    private OffHeapBuffer transitionTable;
+    private long transitionTableCapacity;
+    private long transitionCount = 0;
+
+    private int size = 0;
+    private int slots = -1;
+    private int recordSize;
+    private int recordsPerSegment;
+    private int[] lastIds;
+
+    /**
+     * Creates an empty off heap dictionary.
+     *
+     * @param directory Directory for the mapped files. Null to use direct
+     * buffers instead.
+     */
+    public OffHeapDictionary(File directory) {
+        this.directory = directory;
+        names = new OffHeapBuffer(directory, "derpy-names");
+        records = new OffHeapBuffer(directory, "derpy-words");
+        nodes = new OffHeapBuffer(directory, "derpy-nodes");
+        nodes.allocate(16); //Offset 0 is the end of every list
+
+        nameTableCapacity = NAME_TABLE_CAPACITY;
+        nameTable = newTable("derpy-name-table", (long) nameTableCapacity * 4);
+        transitionTableCapacity = TRANSITION_TABLE_CAPACITY;
+        transitionTable = newTable("derpy-transition-table", transitionTableCapacity * 16);
+
+        regenerateLastWords();
+    }
+
+    private OffHeapBuffer newTable(String name, long bytes) {
+        OffHeapBuffer table = new OffHeapBuffer(directory, name);
+        table.ensureCapacity(bytes);
+        return table;
+    }
+
+    /**
+     * Off heap dictionaries do not evict words.
+     *
+     * @param vocabularyLimit Must be 0.
+     */
+    @Override
+    public synchronized void setVocabularyLimit(int vocabularyLimit) {
+        if (vocabularyLimit != 0) {
+            throw new UnsupportedOperationException("Off heap dictionaries do not have a vocabulary limit");
+        }
+    }
+
+    @Override
+    public synchronized void regenerateLastWords() {
+        lastIds = new int[getAccuracy()];
+        Arrays.fill(lastIds, -1);
+    }
+
+    /**
+     * Fixes the number of distances each record holds. This is done when the
+     * first word is created.
+     */
+    private void setSlots(int accuracy) {
+        if (accuracy > MAX_ACCURACY) {
+            throw new IllegalStateException("Off heap dictionaries hold at most an accuracy of " + MAX_ACCURACY);
+        }
+        slots = accuracy;
+        recordSize = RECORD_HEADER + 8 * (slots + 1);
+        recordsPerSegment = OffHeapBuffer.SEGMENT_SIZE / recordSize;
+    }
+
+    private long record(int id) {
+        return ((long) (id / recordsPerSegment) << OffHeapBuffer.SEGMENT_BITS) + (long) (id % recordsPerSegment) * recordSize;
+    }
+
+    private long head(int id, int distance) {
+        return record(id) + RECORD_HEADER + 8L * distance;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static long hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 29);
+    }
+
+    String getName(int id) {
+        long offset = records.getLong(record(id));
+        byte[] bytes = new byte[names.getInt(offset)];
+        names.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isPunctuation(int id) {
+        return (records.getInt(record(id) + 16) & FLAG_PUNCTUATION) != 0;
+    }
+
+    /**
+     * Creates the record for a new word.
+     */
+    private int createWord(String name, int hash) {
+        if (size >= MAX_WORDS) {
+            throw new IllegalStateException("Off heap dictionaries hold at most " + MAX_WORDS + " words");
+        }
+        if (slots < 0) {
+            setSlots(getAccuracy());
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        long nameOffset = names.allocate(4 + bytes.length);
+        names.putInt(nameOffset, bytes.length);
+        names.put(nameOffset + 4, bytes);
+
+        int id = size++;
+        records.ensureCapacity(record(id) + recordSize);
+        long offset = record(id);
+        records.putLong(offset, nameOffset);
+        records.putInt(offset + 8, 0);
+        records.putInt(offset + 12, hash);
+        records.putInt(offset + 16, Arrays.asList(Punctuation.punctuations).contains(name) ? FLAG_PUNCTUATION : 0);
+        for (int i = 0; i <= slots; i++) {
+            records.putLong(offset + RECORD_HEADER + 8L * i, 0);
+        }
+
+        insertName(nameTable, nameTableCapacity, id, hash);
+        if (size * 2L > nameTableCapacity) {
+            growNameTable();
+        }
+        return id;
+    }
+
+    private static void insertName(OffHeapBuffer table, int capacity, int id, int hash) {
+        int slot = hash & (capacity - 1);
+        while (table.getInt(slot * 4L) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        table.putInt(slot * 4L, id + 1);
+    }
+
+    private void growNameTable() {
+        int capacity = nameTableCapacity * 2;
+        OffHeapBuffer table = newTable("derpy-name-table", (long) capacity * 4);
+        for (int id = 0; id < size; id++) {
+            insertName(table, capacity, id, records.getInt(record(id) + 12));
+        }
+        nameTable.close();
+        nameTable = table;
+        nameTableCapacity = capacity;
+    }
+
+    /**
+     * Finds the id of a word.
+     *
+     * @return The id, or -1 if the word is not in the dictionary.
+     */
+    private int findWord(String name, int hash) {
+        int slot = hash & (nameTableCapacity - 1);
+        int entry;
+        while ((entry = nameTable.getInt(slot * 4L)) != 0) {
+            int id = entry - 1;
+            if (records.getInt(record(id) + 12) == hash && getName(id).equals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & (nameTableCapacity - 1);
+        }
+        return -1;
+    }
+
+    private static long transitionKey(int from, int distance, int to) {
+        return ((long) from << 36) | ((long) distance << 28) | to;
+    }
+
+    /**
+     * Finds the table slot for a transition. The slot is either the one holding
+     * the key or the empty one it would go in.
+     */
+    private static long findSlot(OffHeapBuffer table, long capacity, long key) {
+        long slot = hash(key) & (capacity - 1);
+        while (table.getLong(slot * 16 + 8) != 0 && table.getLong(slot * 16) != key) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return slot;
+    }
+
+    private void growTransitionTable() {
+        long capacity = transitionTableCapacity * 2;
+        OffHeapBuffer table = newTable("derpy-transition-table", capacity * 16);
+        for (long slot = 0; slot < transitionTableCapacity; slot++) {
+            long node = transitionTable.getLong(slot * 16 + 8);
+            if (node != 0) {
+                long key = transitionTable.getLong(slot * 16);
+                long target = findSlot(table, capacity, key);
+                table.putLong(target * 16, key);
+                table.putLong(target * 16 + 8, node);
+            }
+        }
+        transitionTable.close();
+        transitionTable = table;
+        transitionTableCapacity = capacity;
+    }
+
+    /**
+     * Adds to the count of a word after another word. The last distance
+     * (slots) is used to count the sentence lengths of punctuation.
+     */
+    synchronized void addTransition(int from, int distance, int to, int count) {
+        if (distance > slots) {
+            throw new IllegalStateException("The off heap dictionary was created with an accuracy of " + slots);
+        }
+
+        long key = transitionKey(from, distance, to);
+        long slot = findSlot(transitionTable, transitionTableCapacity, key);
+        long node = transitionTable.getLong(slot * 16 + 8);
+        if (node != 0) {
+            nodes.putInt(node + 4, nodes.getInt(node + 4) + count);
+            return;
+        }
+
+        long head = head(from, distance);
+        node = nodes.allocate(16);
+        nodes.putInt(node, to);
+        nodes.putInt(node + 4, count);
+        nodes.putLong(node + 8, records.getLong(head));
+        records.putLong(head, node);
+
+        transitionTable.putLong(slot * 16, key);
+        transitionTable.putLong(slot * 16 + 8, node);
+        if (++transitionCount * 2 > transitionTableCapacity) {
+            growTransitionTable();
+        }
+    }
+
+    synchronized int getRarity(int id) {
+        return records.getInt(record(id) + 8);
+    }
+
+    synchronized void addRarity(int id, int count) {
+        records.putInt(record(id) + 8, records.getInt(record(id) + 8) + count);
+    }
+
+    synchronized int getSlots() {
+        return slots;
+    }
+
+    synchronized Map<String, Integer> getWordsAfter(int id, int distance) {
+        Map<String, Integer> map = new HashMap<>();
+        for (long node = records.getLong(head(id, distance)); node != 0; node = nodes.getLong(node + 8)) {
+            map.put(getName(nodes.getInt(node)), nodes.getInt(node + 4));
+        }
+        return map;
+    }
+
+    synchronized int getCountAfter(int id, int distance, String name) {
+        int to = findWord(name, hash(name));
+        if (to < 0 || distance > slots) {
+            return 0;
+        }
+        long slot = findSlot(transitionTable, transitionTableCapacity, transitionKey(id, distance, to));
+        long node = transitionTable.getLong(slot * 16 + 8);
+        return node == 0 ? 0 : nodes.getInt(node + 4);
+    }
+
+    synchronized long getTransitionCount(int id) {
+        long total = 0;
+        for (int i = 0; i < slots; i++) {
+            for (long node = records.getLong(head(id, i)); node != 0; node = nodes.getLong(node + 8)) {
+                total += nodes.getInt(node + 4);
+            }
+        }
+        return total;
+    }
+
+    synchronized int getAverageSentenceLength(int id) {
+        long total = 0;
+        long count = 0;
+        for (long node = records.getLong(head(id, slots)); node != 0; node = nodes.getLong(node + 8)) {
+            total += (long) nodes.getInt(node) * nodes.getInt(node + 4);
+            count += nodes.getInt(node + 4);
+        }
+        return (int) (total / count);
+    }
+
+    /**
+     * Adds the counts of a word into a record.
+     */
+    synchronized void mergeInto(int id, Word word) {
+        addRarity(id, word.getRarity());
+        for (int i = 0; i < word.getAccuracy(); i++) {
+            for (Map.Entry<String, Integer> entry : word.getWordsAfter(i).entrySet()) {
+                addTransition(id, i, getWordId(entry.getKey()), entry.getValue());
+            }
+        }
+        if (word instanceof Punctuation) {
+            for (int length : ((Punctuation) word).getSentenceLengths()) {
+                addTransition(id, slots, length, 1);
+            }
+        }
+    }
+
+    /**
+     * Copies a record into a normal Word.
+     */
+    synchronized Word toWord(int id) {
+        String name = getName(id);
+        Word word = isPunctuation(id) ? new Punctuation(name, slots) : new Word(name, slots);
+        word.rarity = getRarity(id);
+        for (int i = 0; i < slots; i++) {
+            word.getWordsAfter(i).putAll(getWordsAfter(id, i));
+        }
+        if (word instanceof Punctuation) {
+            ((Punctuation) word).getSentenceLengths().addAll(getSentenceLengths(id));
+        }
+        return word;
+    }
+
+    synchronized List<Integer> getSentenceLengths(int id) {
+        List<Integer> lengths = new ArrayList<>();
+        for (long node = records.getLong(head(id, slots)); node != 0; node = nodes.getLong(node + 8)) {
+            for (int i = 0; i < nodes.getInt(node + 4); i++) {
+                lengths.add(nodes.getInt(node));
+            }
+        }
+        return lengths;
+    }
+
+    private Word view(int id) {
+        return isPunctuation(id) ? new PunctuationView(this, id) : new WordView(this, id);
+    }
+
+    @Override
+    public synchronized void addWord(Word word) {
+        if (slots < 0) {
+            setSlots(word.getAccuracy());
+        }
+        mergeInto(getWordId(word.getName()), word);
+        changed();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized int getWordCount() {
+        int totalSize = 0;
+        for (int id = 0; id < size; id++) {
+            totalSize += getRarity(id);
+        }
+        return totalSize;
+    }
+
+    @Override
+    public synchronized Word getWord(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return view(index);
+    }
+
+    @Override
+    public synchronized void addWord(String name) {
+        addToken(getWordId(name));
+        changed();
+
+        DerpyManager.getMetrics().addTokens(1);
+        DerpyManager.getMetrics().addTransitions(getAccuracy());
+    }
+
+    @Override
+    public synchronized void addTokens(int[] ids, int from, int to) {
+        for (int i = from; i < to; i++) {
+            addToken(ids[i]);
+        }
+        changed();
+
+        DerpyManager.getMetrics().addTokens(to - from);
+        DerpyManager.getMetrics().addTransitions((long) (to - from) * getAccuracy());
+    }
+
+    private void addToken(int id) {
+        for (int i = lastIds.length - 1; i >= 0; i--) {
+            if (lastIds[i] < 0) {
+                Word.wordNotFound.addWordAfter(view(id), i);
+            } else {
+                addTransition(lastIds[i], i, id, 1);
+            }
+        }
+
+        for (int i = lastIds.length - 1; i > 0; i--) {
+            lastIds[i] = lastIds[i - 1];
+        }
+        lastIds[0] = id;
+        addRarity(id, 1);
+
+        if (isPunctuation(id)) {
+            addTransition(id, slots, lastPunctuation, 1);
+            lastPunctuation = 0;
+        } else {
+            lastPunctuation++;
+        }
+    }
+
+    @Override
+    public synchronized Word getWord(String name) {
+        return view(getWordId(name));
+    }
+
+    @Override
+    public synchronized int getWordId(String name) {
+        int hash = hash(name);
+        int id = findWord(name, hash);
+        return id >= 0 ? id : createWord(name, hash);
+    }
+
+    /**
+     * Off heap words are already compact, so there is nothing to freeze.
+     *
+     * @return Always 0.
+     */
+    @Override
+    public long freeze() {
+        return 0;
+    }
+
+    @Override
+    public synchronized int findWordId(String name) {
+        return findWord(name, hash(name));
+    }
+
+    @Override
+    public synchronized boolean hasWord(String name) {
+        return findWord(name, hash(name)) >= 0;
+    }
+
+    @Override
+    public synchronized void printContents() {
+        for (int id = 0; id < size; id++) {
+            System.out.println(getName(id));
+        }
+    }
+
+    /**
+     * Gets the list of words in the dictionary. The list is a view, so the
+     * words are made when they are asked for.
+     *
+     * @return The list of words in the dictionary.
+     */
+    @Override
+    public List<Word> getWordList() {
+        return new AbstractList<Word>() {
+
+            @Override
+            public Word get(int index) {
+                return getWord(index);
+            }
+
+            @Override
+            public int size() {
+                return getSize();
+            }
+        };
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int id = 0; id < size; id++) {
+            s.append(getName(id)).append("\n");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Gets the number of bytes of off heap memory in use.
+     *
+     * @return Bytes allocated for names, words, counts and tables.
+     */
+    public synchronized long getOffHeapBytes() {
+        return names.getSize() + records.getSize() + nodes.getSize()
+                + (long) nameTableCapacity * 4 + transitionTableCapacity * 16;
+    }
+
+    /**
+     * Gives back the off heap memory. The dictionary can not be used after it
+     * is closed.
+     */
+    @Override
+    public synchronized void close() {
+        names.close();
+        records.close();
+        nodes.close();
+        nameTable.close();
+        transitionTable.close();
+        size = 0;
+    }
+
+    /**
+     * A word stored in an off heap dictionary.
+     */
+    static class WordView extends Word {
+
+        static final long serialVersionUID = -3010695769693014599L;
+
+        private final OffHeapDictionary dictionary;
+        final int id;
+
+        WordView(OffHeapDictionary dictionary, int id) {
+            super(dictionary.getName(id), 0);
+            this.dictionary = dictionary;
+            this.id = id;
+        }
+
+        @Override
+        public void increaseRarity() {
+            dictionary.addRarity(id, 1);
+        }
+
+        @Override
+        public void addWordAfter(Word word, int index) {
+            dictionary.addTransition(id, index, dictionary.getWordId(word.getName()), 1);
+        }
+
+        @Override
+        public void mergeFrom(Word other) {
+            dictionary.mergeInto(id, other);
+        }
+
+        @Override
+        public int getAccuracy() {
+            return dictionary.getSlots();
+        }
+
+        @Override
+        public Map<String, Integer> getWordsAfter(int index) {
+            return dictionary.getWordsAfter(id, index);
+        }
+
+        @Override
+        public long getTransitionCount() {
+            return dictionary.getTransitionCount(id);
+        }
+
+        @Override
+        public int getCountAfter(int index, String name) {
+            return dictionary.getCountAfter(id, index, name);
+        }
+
+        @Override
+        public int getRarity() {
+            return dictionary.getRarity(id);
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return dictionary.toWord(id);
+        }
+    }
+
+    /**
+     * A punctuation stored in an off heap dictionary. The sentence lengths are
+     * kept as counts in the extra list after the distances.
+     */
+    static class PunctuationView extends Punctuation {
+
+        static final long serialVersionUID = -3010695769693014699L;
+
+        private final OffHeapDictionary dictionary;
+        final int id;
+
+        PunctuationView(OffHeapDictionary dictionary, int id) {
+            super(dictionary.getName(id), 0);
+            this.dictionary = dictionary;
+            this.id = id;
+        }
+
+        @Override
+        public void increaseRarity() {
+            dictionary.addRarity(id, 1);
+        }
+
+        @Override
+        public void addWordAfter(Word word, int index) {
+            dictionary.addTransition(id, index, dictionary.getWordId(word.getName()), 1);
+        }
+
+        @Override
+        public void mergeFrom(Word other) {
+            dictionary.mergeInto(id, other);
+        }
+
+        @Override
+        public int getAccuracy() {
+            return dictionary.getSlots();
+        }
+
+        @Override
+        public Map<String, Integer> getWordsAfter(int index) {
+            return dictionary.getWordsAfter(id, index);
+        }
+
+        @Override
+        public long getTransitionCount() {
+            return dictionary.getTransitionCount(id);
+        }
+
+        @Override
+        public int getCountAfter(int index, String name) {
+            return dictionary.getCountAfter(id, index, name);
+        }
+
+        @Override
+        public int getRarity() {
+            return dictionary.getRarity(id);
+        }
+
+        @Override
+        public void addLength(int length) {
+            dictionary.addTransition(id, dictionary.getSlots(), length, 1);
+        }
+
+        @Override
+        public List<Integer> getSentenceLengths() {
+            return dictionary.getSentenceLengths(id);
+        }
+
+        @Override
+        public int getAverageSentenceLength() {
+            return dictionary.getAverageSentenceLength(id);
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return dictionary.toWord(id);
+        }
+    }
+
+}
@@ -24,7 +24,9 @@
 package hrcek.core;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class is an extension of Word that is used for determining punctuation
@@ -39,6 +41,7 @@ public class Punctuation extends Word{
     
     public static final String[] punctuations = {",",".","!","?",";"};
     public static final String[] endPunctuations = {".","!","?"};
+    static final long serialVersionUID = 4367617809182918905L; //What the first release worked out, so its dictionaries still load
     
     /**
      * A constructor. Does everything the Word constructor does in addition to
@@ -52,6 +55,18 @@ public class Punctuation extends Word{
         sentenceLengths = new ArrayList<>();
     }
     
+    /**
+     * A constructor for punctuation with a custom accuracy.
+     * 
+     * @param name String literal of the punctuation type.
+     * @param size The accuracy of the punctuation.
+     */
+    public Punctuation(String name, int size) {
+        super(name, size);
+        averageSentenceLength = 0;
+        sentenceLengths = new ArrayList<>();
+    }
+    
     /**
      * This method calculates and gets the average sentence length for this
      * punctuation.
@@ -81,4 +96,56 @@ public class Punctuation extends Word{
         sentenceLengths.add(length);
     }
     
+    /**
+     * Gets every sentence length added to this punctuation.
+     * 
+     * @return The sentence lengths.
+     */
+    public List<Integer> getSentenceLengths(){
+        return sentenceLengths;
+    }
+    
+    /**
+     * Adds the counts and sentence lengths of another punctuation to this one.
+     * 
+     * @param other Word to take the counts from.
+     */
+    @Override
+    public synchronized void mergeFrom(Word other){
+        super.mergeFrom(other);
+        if(other instanceof Punctuation){
+            sentenceLengths.addAll(((Punctuation) other).getSentenceLengths());
+        }
+    }
+    
+    /**
+     * Takes the counts and sentence lengths of another punctuation away from
+     * this one. One matching length is removed for each length of the other.
+     * 
+     * @param other Word with the counts to take away.
+     */
+    @Override
+    public synchronized void subtract(Word other){
+        super.subtract(other);
+        if(other instanceof Punctuation){
+            Map<Integer, Integer> remove = new HashMap<>();
+            for(int length: ((Punctuation) other).getSentenceLengths()){
+                Integer count = remove.get(length);
+                remove.put(length, count == null ? 1 : count + 1);
+            }
+            List<Integer> kept = new ArrayList<>(sentenceLengths.size());
+            for(Integer length: sentenceLengths){
+                Integer count = remove.get(length);
+                if(count == null){
+                    kept.add(length);
+                } else if(count == 1){
+                    remove.remove(length);
+                } else{
+                    remove.put(length, count - 1);
+                }
+            }
+            sentenceLengths = kept;
+        }
+    }
+    
 }
@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class lists the sources a dictionary was read from, so a dictionary can
+ * be brought up to date by only reading the sources that changed. Each source
+ * has the counts it added kept in its own file, in the saved dictionary format,
+ * so they can be taken away again when the source changes or is removed.
+ *
+ * The manifest and the counts are kept in a directory next to the dictionary
+ * (see directoryFor). The manifest is a text file with a line for each source:
+ * size, modification time, content hash, tokens read, counts file and path,
+ * split by tabs.
+ *
+ * While sources are being read, a checkpoint of the manifest is saved every so
+ * often, listing the sources finished so far. The counts files are never
+ * changed once written, so a checkpoint and the counts it lists are a snapshot
+ * of the read that can be resumed from after a crash.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class SourceManifest {
+
+    static final String MANIFEST_FILE = "manifest.txt";
+    static final String CHECKPOINT_FILE = "checkpoint.txt";
+    static final String HEADER = "derpy-manifest 1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int format;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty manifest.
+     *
+     * @param format The input format the sources are read with.
+     */
+    public SourceManifest(int format) {
+        this.format = format;
+    }
+
+    /**
+     * Gets the directory the manifest of a dictionary is kept in.
+     *
+     * @param dictionaryLocation Location of the dictionary file.
+     * @return The manifest directory.
+     */
+    public static File directoryFor(String dictionaryLocation) {
+        return new File(dictionaryLocation + ".sources");
+    }
+
+    /**
+     * Loads a manifest.
+     *
+     * @param directory The manifest directory.
+     * @return The manifest, or null if the directory has none.
+     * @throws IOException If the manifest can not be read.
+     */
+    public static SourceManifest load(File directory) throws IOException {
+        return loadFile(new File(directory, MANIFEST_FILE));
+    }
+
+    /**
+     * Loads the checkpoint of a read that did not finish.
+     *
+     * @param directory The manifest directory.
+     * @return The checkpoint, or null if the directory has none.
+     * @throws IOException If the checkpoint can not be read.
+     */
+    public static SourceManifest loadCheckpoint(File directory) throws IOException {
+        return loadFile(new File(directory, CHECKPOINT_FILE));
+    }
+
+    private static SourceManifest loadFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            if (!HEADER.equals(in.readLine())) {
+                throw new IOException(file + " is not a source manifest");
+            }
+            SourceManifest manifest;
+            try {
+                manifest = new SourceManifest(Integer.parseInt(in.readLine()));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", 6);
+                    if (fields.length != 6) {
+                        throw new IOException("Bad line in " + file + ": " + line);
+                    }
+                    manifest.put(new Entry(fields[5], Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], Long.parseLong(fields[3]), fields[4]));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number in " + file, e);
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * Saves the manifest into a directory. Counts files in the directory that
+     * are not listed any more are deleted afterwards, along with the
+     * checkpoint of the read.
+     *
+     * @param directory The manifest directory.
+     * @throws IOException If the manifest can not be written.
+     */
+    public void save(File directory) throws IOException {
+        write(directory, MANIFEST_FILE);
+        new File(directory, CHECKPOINT_FILE).delete();
+
+        Set<String> listed = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            listed.add(entry.counts);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".dict") && !listed.contains(f.getName())) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the manifest as a checkpoint. Nothing is deleted, and the manifest
+     * of the dictionary the read started from is left alone.
+     *
+     * @param directory The manifest directory.
+     * @throws IOException If the checkpoint can not be written.
+     */
+    public void saveCheckpoint(File directory) throws IOException {
+        write(directory, CHECKPOINT_FILE);
+    }
+
+    private void write(File directory, String name) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, name);
+        File tmp = new File(directory, name + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(tmp))) {
+            out.write(HEADER + "\n");
+            out.write(format + "\n");
+            for (Entry entry : entries.values()) {
+                out.write(entry.size + "\t" + entry.modified + "\t" + entry.hash + "\t" + entry.tokens + "\t" + entry.counts + "\t" + entry.path + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    public List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Works out the hash of the contents of a file.
+     *
+     * @param file The file.
+     * @return The SHA-256 of the file in hex.
+     * @throws IOException If the file can not be read.
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //Every JVM has SHA-256
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A source that was read into the dictionary.
+     */
+    public static class Entry {
+
+        final String path;
+        final long size;
+        final long modified;
+        final String hash;
+        final long tokens;
+        final String counts;
+
+        /**
+         * Creates an entry.
+         *
+         * @param path Absolute path of the source.
+         * @param size Size of the source in bytes.
+         * @param modified Modification time of the source.
+         * @param hash Hash of the contents of the source.
+         * @param tokens Number of words and punctuation read from it.
+         * @param counts Name of the file holding its counts.
+         */
+        public Entry(String path, long size, long modified, String hash, long tokens, String counts) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.tokens = tokens;
+            this.counts = counts;
+        }
+
+        /**
+         * Creates an entry for a source that was just read. The name of the
+         * counts file comes from the path and hash, so a changed source never
+         * overwrites the counts of what it used to be.
+         */
+        static Entry of(File file, String hash, long tokens) {
+            String path = file.getPath();
+            String counts = hash.substring(0, 16) + "-" + String.format("%08x", path.hashCode()) + ".dict";
+            return new Entry(path, file.length(), file.lastModified(), hash, tokens, counts);
+        }
+
+        /**
+         * Determines if a file still has the size and modification time it
+         * had when it was read.
+         *
+         * @param file The source.
+         * @return If the file looks unchanged.
+         */
+        boolean matches(File file) {
+            return file.length() == size && file.lastModified() == modified;
+        }
+
+        /**
+         * Gets a copy of this entry for a file whose contents are unchanged
+         * but whose modification time is new.
+         */
+        Entry touch(File file) {
+            return new Entry(path, file.length(), file.lastModified(), hash, tokens, counts);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import static hrcek.core.Boot.printIfVerbose;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a dictionary that keeps its estimated heap use under a budget
+ * while reading. When the words read would take more than the budget, every
+ * word is written to a sorted run file on disk and the dictionary starts over
+ * empty. The words last read are kept by name, so nothing that follows them is
+ * lost. When reading is done the runs are merged into one dictionary, which
+ * has exactly the counts reading everything in memory would give.
+ *
+ * The budget is compared with an estimate of the words and their words after,
+ * not with the real heap, so it should be well under the maximum heap to leave
+ * room for the garbage collector and the readers.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public class SpillingDictionary extends Dictionary {
+
+    static final long serialVersionUID = 5526349781129664071L;
+
+    private final long budget;
+    private final File directory;
+    private transient List<File> runs = new ArrayList<>();
+    private long wordBytes = 0;
+    private long loadedEntries = 0;
+
+    /**
+     * Creates an empty dictionary that spills to disk.
+     *
+     * @param accuracy The accuracy of the dictionary.
+     * @param budget Estimated heap the words may take, in bytes.
+     * @param directory Where runs are written. Null for the default temporary
+     * directory.
+     */
+    public SpillingDictionary(int accuracy, long budget, File directory) {
+        super(accuracy);
+        this.budget = budget;
+        this.directory = directory;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the number of runs written to disk so far.
+     *
+     * @return The number of runs.
+     */
+    public synchronized int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Gets the estimated heap the words in memory take.
+     *
+     * @return The estimate in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return wordBytes + (loadedEntries + getEntriesAdded()) * DerpyInspector.estimateEntryBytes();
+    }
+
+    @Override
+    public synchronized void addWord(Word word) {
+        super.addWord(word);
+        wordBytes += DerpyInspector.estimateWordBytes(word);
+        loadedEntries += word.getEntryCount();
+    }
+
+    @Override
+    public synchronized void addWord(String name) {
+        super.addWord(name);
+        spillIfNeeded();
+    }
+
+    @Override
+    public synchronized void addTokens(String[] names, int[] ids, int epoch, int from, int to) {
+        super.addTokens(names, ids, epoch, from, to);
+        spillIfNeeded();
+    }
+
+    private void spillIfNeeded() {
+        if (getEstimatedBytes() > budget) {
+            try {
+                spill();
+            } catch (IOException e) {
+                DerpyLogger.error(e, "Unable to spill the dictionary to disk!");
+            }
+        }
+    }
+
+    /**
+     * Writes every word to a new run and empties the dictionary.
+     */
+    private void spill() throws IOException {
+        long estimate = getEstimatedBytes();
+        List<Word> drained = drain();
+        wordBytes = 0;
+        loadedEntries = 0;
+        for (int i = 0; i < getSize(); i++) {
+            wordBytes += DerpyInspector.estimateWordBytes(getWord(i));
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        runs.add(new DerpyMerger(1, directory).writeRun(drained, getAccuracy()));
+        printIfVerbose("Spilled " + drained.size() + " words (about " + (estimate >> 20) + "MB) to run " + runs.size() + "...");
+    }
+
+    /**
+     * Finishes reading. If nothing was spilled, the words stay in memory and
+     * nothing is written. Otherwise the words left are spilled and every run is
+     * merged into the output.
+     *
+     * @param output Where to write the merged dictionary. Null to merge into a
+     * temporary file.
+     * @param reload If the merged dictionary should be loaded back into this
+     * dictionary. If not, the dictionary is left empty.
+     * @return True if the merged dictionary was written to the output.
+     */
+    public synchronized boolean finishReading(String output, boolean reload) throws IOException {
+        if (runs.isEmpty()) {
+            return false;
+        }
+        spill();
+        drain();
+        wordBytes = 0;
+        regenerateLastWords();
+
+        File merged = output == null ? File.createTempFile("derpy-merged", ".dict", directory) : new File(output);
+        try {
+            long written = new DerpyMerger(1, directory).mergeRuns(runs, getAccuracy(), merged.getPath());
+            printIfVerbose("Merged " + runs.size() + " runs into " + written + " words...");
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+            runs.clear();
+        }
+
+        try {
+            if (reload) {
+                try (DerpyMerger.WordStream stream = new DerpyMerger.WordStream(merged.getPath())) {
+                    Word word;
+                    while ((word = stream.next()) != null) {
+                        super.addWord(word);
+                    }
+                }
+            }
+        } finally {
+            if (output == null) {
+                merged.delete();
+            }
+        }
+        return output != null;
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        runs = new ArrayList<>();
+    }
+}
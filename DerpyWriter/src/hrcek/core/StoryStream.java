@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class streams a story to a client while it is written. The header is
+ * written first, then each paragraph as soon as the writer finishes it, then
+ * the footer. Both the server and the daemon stream stories this way.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+class StoryStream implements DerpyWriter.ParagraphListener {
+
+    private final Writer out;
+    private final boolean formatText;
+    private final int format;
+
+    /**
+     * Creates a stream of a story.
+     *
+     * @param out Where the story is written.
+     * @param formatText If paragraphs are formatted.
+     * @param format The output format.
+     */
+    StoryStream(Writer out, boolean formatText, int format) {
+        this.out = out;
+        this.formatText = formatText;
+        this.format = format;
+    }
+
+    void writeHeader() throws IOException {
+        if (formatText && DerpyFormatter.getHeader(format) != null) {
+            out.write(DerpyFormatter.getHeader(format) + "\n");
+        }
+    }
+
+    @Override
+    public void paragraphWritten(String paragraph) {
+        try {
+            out.write(formatText ? DerpyFormatter.formatParagraph(paragraph, format) : paragraph);
+            out.write("\n\n");
+            out.flush();
+        } catch (IOException e) {
+            throw new ClientGoneException(e);
+        }
+    }
+
+    void writeFooter() throws IOException {
+        if (formatText && DerpyFormatter.getFooter(format) != null) {
+            out.write(DerpyFormatter.getFooter(format) + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Thrown from the stream when the client can no longer be written to.
+     * This stops the writer early.
+     */
+    static class ClientGoneException extends RuntimeException {
+
+        static final long serialVersionUID = 1L;
+
+        ClientGoneException(IOException cause) {
+            super(cause);
+        }
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Michael Hrcek <hrcekmj@clarkson.edu>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hrcek.core;
+
+import java.util.Arrays;
+
+/**
+ * This class is a compact, read only list of the words that followed a word at
+ * one distance, with their counts. It is what a word keeps instead of a map
+ * once the dictionary is frozen.
+ *
+ * Words are stored by id and sorted by id. Lists with one word, or only a few,
+ * are stored directly. Larger lists are cut into blocks of BLOCK_SIZE entries.
+ * Inside a block every entry is the id's distance from the last id and the
+ * count, both as varints. Each block also records its first id, its offset
+ * and the total of the counts before it. Picking a word by a random number or
+ * finding the count of an id is then a binary search over the blocks followed
+ * by decoding at most one block.
+ *
+ * @author Michael Hrcek <hrcekmj@clarkson.edu>
+ */
+public abstract class SuccessorList {
+
+    public static final int SMALL_SIZE = 8;
+    public static final int BLOCK_SIZE = 16;
+
+    public static final SuccessorList EMPTY = new Small(new int[0], new int[0]);
+
+    /**
+     * Creates a list from ids and counts in any order. The ids must be unique
+     * and not negative.
+     *
+     * @param ids Ids of the words.
+     * @param counts Counts of the words.
+     * @param size Number of entries to use.
+     * @return The list.
+     */
+    public static SuccessorList of(int[] ids, int[] counts, int size) {
+        if (size == 0) {
+            return EMPTY;
+        } else if (size == 1) {
+            return new Single(ids[0], counts[0]);
+        }
+
+        long[] entries = new long[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = ((long) ids[i] << 32) | (counts[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(entries);
+
+        int[] sortedIds = new int[size];
+        int[] sortedCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = (int) (entries[i] >>> 32);
+            sortedCounts[i] = (int) entries[i];
+        }
+        if (size <= SMALL_SIZE) {
+            return new Small(sortedIds, sortedCounts);
+        }
+        return new Blocked(sortedIds, sortedCounts);
+    }
+
+    /**
+     * Gets the number of different words in the list.
+     *
+     * @return The number of entries.
+     */
+    public abstract int size();
+
+    /**
+     * Gets the total of all the counts.
+     *
+     * @return The sum of the counts.
+     */
+    public abstract long total();
+
+    /**
+     * Gets the count of a word.
+     *
+     * @param id Id of the word.
+     * @return The count, or 0 if the word is not in the list.
+     */
+    public abstract int count(int id);
+
+    /**
+     * Picks a word with a chance based on its count.
+     *
+     * @param r A number from 0 (inclusive) to total() (exclusive).
+     * @return The id of the word.
+     */
+    public abstract int pick(long r);
+
+    /**
+     * Copies the entries out in id order.
+     *
+     * @param ids Array of at least size() the ids are written to.
+     * @param counts Array of at least size() the counts are written to.
+     */
+    public abstract void decode(int[] ids, int[] counts);
+
+    /**
+     * Gets the number of bytes the entries take up, not counting object
+     * headers.
+     *
+     * @return Approximate size of the data.
+     */
+    public abstract long getDataBytes();
+
+    /**
+     * A list with a single word.
+     */
+    static class Single extends SuccessorList {
+
+        private final int id;
+        private final int count;
+
+        Single(int id, int count) {
+            this.id = id;
+            this.count = count;
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public long total() {
+            return count;
+        }
+
+        @Override
+        public int count(int id) {
+            return id == this.id ? count : 0;
+        }
+
+        @Override
+        public int pick(long r) {
+            return id;
+        }
+
+        @Override
+        public void decode(int[] ids, int[] counts) {
+            ids[0] = id;
+            counts[0] = count;
+        }
+
+        @Override
+        public long getDataBytes() {
+            return 8;
+        }
+    }
+
+    /**
+     * A list of a few words kept in plain arrays.
+     */
+    static class Small extends SuccessorList {
+
+        private final int[] ids;
+        private final int[] counts;
+        private final long total;
+
+        Small(int[] ids, int[] counts) {
+            this.ids = ids;
+            this.counts = counts;
+            long sum = 0;
+            for (int count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public long total() {
+            return total;
+        }
+
+        @Override
+        public int count(int id) {
+            int i = Arrays.binarySearch(ids, id);
+            return i >= 0 ? counts[i] : 0;
+        }
+
+        @Override
+        public int pick(long r) {
+            for (int i = 0; i < ids.length; i++) {
+                r -= counts[i];
+                if (r < 0) {
+                    return ids[i];
+                }
+            }
+            throw new IllegalArgumentException("Pick is past the total");
+        }
+
+        @Override
+        public void decode(int[] ids, int[] counts) {
+            System.arraycopy(this.ids, 0, ids, 0, this.ids.length);
+            System.arraycopy(this.counts, 0, counts, 0, this.counts.length);
+        }
+
+        @Override
+        public long getDataBytes() {
+            return 8L * ids.length;
+        }
+    }
+
+    /**
+     * A list of many words kept as blocks of varints.
+     */
+    static class Blocked extends SuccessorList {
+
+        private final int size;
+        private final byte[] data;
+        private final int[] blockIds;
+        private final int[] blockOffsets;
+        private final long[] blockTotals;
+        private final long total;
+
+        Blocked(int[] ids, int[] counts) {
+            size = ids.length;
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            blockIds = new int[blocks];
+            blockOffsets = new int[blocks];
+            blockTotals = new long[blocks];
+
+            byte[] buffer = new byte[size * 10];
+            int offset = 0;
+            long sum = 0;
+            int last = 0;
+            for (int i = 0; i < size; i++) {
+                if (i % BLOCK_SIZE == 0) {
+                    int b = i / BLOCK_SIZE;
+                    blockIds[b] = ids[i];
+                    blockOffsets[b] = offset;
+                    blockTotals[b] = sum;
+                    last = ids[i];
+                }
+                offset = writeVarint(buffer, offset, ids[i] - last);
+                offset = writeVarint(buffer, offset, counts[i]);
+                last = ids[i];
+                sum += counts[i];
+            }
+            data = Arrays.copyOf(buffer, offset);
+            total = sum;
+        }
+
+        private static int writeVarint(byte[] buffer, int offset, int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[offset++] = (byte) value;
+            return offset;
+        }
+
+        /**
+         * Reads a varint. The position is kept in cursor[0].
+         */
+        private int readVarint(int[] cursor) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[cursor[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private int blockSize(int block) {
+            return Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long total() {
+            return total;
+        }
+
+        @Override
+        public int count(int id) {
+            int block = Arrays.binarySearch(blockIds, id);
+            if (block < 0) {
+                block = -block - 2;
+                if (block < 0) {
+                    return 0;
+                }
+            }
+
+            int[] cursor = {blockOffsets[block]};
+            int current = blockIds[block];
+            for (int i = blockSize(block); i > 0; i--) {
+                current += readVarint(cursor);
+                int count = readVarint(cursor);
+                if (current == id) {
+                    return count;
+                } else if (current > id) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public int pick(long r) {
+            int block = Arrays.binarySearch(blockTotals, r);
+            if (block < 0) {
+                block = -block - 2;
+            }
+
+            r -= blockTotals[block];
+            int[] cursor = {blockOffsets[block]};
+            int current = blockIds[block];
+            for (int i = blockSize(block); i > 0; i--) {
+                current += readVarint(cursor);
+                r -= readVarint(cursor);
+                if (r < 0) {
+                    return current;
+                }
+            }
+            throw new IllegalArgumentException("Pick is past the total");
+        }
+
+        @Override
+        public void decode(int[] ids, int[] counts) {
+            int[] cursor = {0};
+            int current = 0;
+            for (int i = 0; i < size; i++) {
+                if (i % BLOCK_SIZE == 0) {
+                    current = blockIds[i / BLOCK_SIZE];
+                }
+                current += readVarint(cursor);
+                ids[i] = current;
+                counts[i] = readVarint(cursor);
+            }
+        }
+
+        @Override
+        public long getDataBytes() {
+            return data.length + 16L * blockIds.length;
+        }
+    }
+
+}
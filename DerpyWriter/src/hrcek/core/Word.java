@@ -23,19 +23,21 @@
  */
 package hrcek.core;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  *
  * This class is the derpy representation of a word. Each word contains
- * information about the words which follow (up to a global accuracy number).
- * The words following are stored as strings which means that they can
- * theoretically be used in a cross-dictionary manner. The global accuracy
- * attribute can cause trouble if used incorrectly...
+ * information about the words which follow (up to the accuracy of the
+ * dictionary holding it). The words following are stored as strings which
+ * means that they can theoretically be used in a cross-dictionary manner.
  *
  * @author Michael Hrcek <hrcekmj@clarkson.edu>
  */
@@ -48,11 +50,13 @@ public class Word implements Serializable {
     protected volatile String name;
     protected volatile int rarity;
     protected volatile List< Map<String, Integer>> wordsAfter;
+    protected transient volatile SuccessorList[] frozen;
+    protected transient volatile Dictionary frozenIn;
 
     /**
-     * This method is used to set the global accuracy value. Use this method
-     * with care! It can break the program if it is used to change the accuracy
-     * beyond what any words may contain...
+     * This method is used to set the default accuracy. It is used by words
+     * and dictionaries created without an accuracy. Words and dictionaries that
+     * already exist keep their own accuracy.
      *
      * @param accuracyNumber Higher accuracy == Less derp?
      */
@@ -110,23 +114,387 @@ public class Word implements Serializable {
      * @param index This is how far back the word occurred.
      */
     public synchronized void addWordAfter(Word word, int index) {
-        if (wordsAfter.get(index).containsKey(word.getName())) {
-            wordsAfter.get(index).put(word.getName(), wordsAfter.get(index).get(word.getName()) + 1);
-        } else {
-            wordsAfter.get(index).put(word.getName(), 1);
+        countWordAfter(word, index);
+    }
+
+    /**
+     * Adds a word to the words that follow, telling whether it is the first
+     * time the word follows at this distance.
+     *
+     * @param word Word to be added.
+     * @param index This is how far back the word occurred.
+     * @return True if a new entry was made for the word.
+     */
+    synchronized boolean countWordAfter(Word word, int index) {
+        thaw();
+        Integer count = wordsAfter.get(index).get(word.getName());
+        wordsAfter.get(index).put(word.getName(), count == null ? 1 : count + 1);
+        return count == null;
+    }
+
+    /**
+     * Adds the counts of another word with the same name to this one. This is
+     * used when dictionaries are merged.
+     *
+     * @param other Word to take the counts from.
+     */
+    public synchronized void mergeFrom(Word other) {
+        thaw();
+        rarity += other.getRarity();
+        for (int i = 0; i < other.getAccuracy(); i++) {
+            if (i >= wordsAfter.size()) {
+                wordsAfter.add(new HashMap<String, Integer>());
+            }
+            Map<String, Integer> mine = wordsAfter.get(i);
+            for (Map.Entry<String, Integer> entry : other.getWordsAfter(i).entrySet()) {
+                Integer count = mine.get(entry.getKey());
+                mine.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Takes the counts of another word with the same name away from this one.
+     * Words after counts that reach zero are removed. This is used to forget a
+     * source that was read before.
+     *
+     * @param other Word with the counts to take away.
+     */
+    public synchronized void subtract(Word other) {
+        thaw();
+        rarity -= other.getRarity();
+        for (int i = 0; i < Math.min(other.getAccuracy(), wordsAfter.size()); i++) {
+            Map<String, Integer> mine = wordsAfter.get(i);
+            for (Map.Entry<String, Integer> entry : other.getWordsAfter(i).entrySet()) {
+                Integer count = mine.get(entry.getKey());
+                if (count != null) {
+                    if (count > entry.getValue()) {
+                        mine.put(entry.getKey(), count - entry.getValue());
+                    } else {
+                        mine.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets how many distances this word holds words after for.
+     *
+     * @return The number of words after maps.
+     */
+    public synchronized int getAccuracy() {
+        return frozen != null ? frozen.length : wordsAfter.size();
+    }
+
+    /**
+     * Drops the words after past a distance, so the word fits a dictionary
+     * with a lower accuracy.
+     *
+     * @param accuracy Number of distances to keep.
+     */
+    synchronized void truncate(int accuracy) {
+        thaw();
+        while (wordsAfter.size() > accuracy) {
+            wordsAfter.remove(wordsAfter.size() - 1);
         }
     }
 
+    /**
+     * Replaces the words after maps with compact successor lists. The words
+     * after are stored by their id in the dictionary, so the dictionary must
+     * hold every word that followed this one. Adding more words after thaws
+     * the word again.
+     *
+     * @param dictionary The dictionary holding this word.
+     * @return Approximate bytes used by the successor lists.
+     */
+    public synchronized long freeze(Dictionary dictionary) {
+        long bytes = 0;
+        if (frozen == null) {
+            SuccessorList[] lists = new SuccessorList[wordsAfter.size()];
+            for (int i = 0; i < lists.length; i++) {
+                Map<String, Integer> map = wordsAfter.get(i);
+                int[] ids = new int[map.size()];
+                int[] counts = new int[map.size()];
+                int n = 0;
+                for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                    ids[n] = dictionary.getWordId(entry.getKey());
+                    counts[n++] = entry.getValue();
+                }
+                lists[i] = SuccessorList.of(ids, counts, n);
+            }
+            frozenIn = dictionary;
+            frozen = lists;
+            wordsAfter = null;
+        }
+        for (SuccessorList list : frozen) {
+            bytes += list.getDataBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Freezes the word with successor lists that were made elsewhere.
+     *
+     * @param dictionary The dictionary the ids belong to.
+     * @param lists One successor list for each distance.
+     */
+    synchronized void freeze(Dictionary dictionary, SuccessorList[] lists) {
+        frozenIn = dictionary;
+        frozen = lists;
+        wordsAfter = null;
+    }
+
+    /**
+     * Turns the successor lists of a frozen word back into maps.
+     */
+    synchronized void thaw() {
+        if (frozen != null) {
+            List<Map<String, Integer>> maps = new ArrayList<>();
+            for (SuccessorList list : frozen) {
+                maps.add(toMap(list, frozenIn));
+            }
+            wordsAfter = maps;
+            frozen = null;
+            frozenIn = null;
+        }
+    }
+
+    private static Map<String, Integer> toMap(SuccessorList list, Dictionary dictionary) {
+        int[] ids = new int[list.size()];
+        int[] counts = new int[list.size()];
+        list.decode(ids, counts);
+
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            map.put(dictionary.getFrozenWord(ids[i]).getName(), counts[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Determines if the word has been frozen.
+     *
+     * @return If the word holds successor lists instead of maps.
+     */
+    public synchronized boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Picks a word that followed a frozen word index words away. The chance
+     * of each word is its count over the total count.
+     *
+     * @param index This is the number away the occurrence is.
+     * @param random Random used to pick the word.
+     * @return The picked word, or null if no words followed.
+     */
+    public Word sampleWordAfter(int index, Random random) {
+        SuccessorList list;
+        Dictionary dictionary;
+        synchronized (this) {
+            if (frozen == null) {
+                throw new IllegalStateException(name + " is not frozen");
+            }
+            list = frozen[index];
+            dictionary = frozenIn;
+        }
+
+        long total = list.total();
+        if (total == 0) {
+            return null;
+        }
+        long r = total <= Integer.MAX_VALUE ? random.nextInt((int) total) : (long) (random.nextDouble() * total);
+        return dictionary.getFrozenWord(list.pick(r));
+    }
+
+    /**
+     * Gets the words that followed this one index words away with their
+     * counts. A frozen word reads them straight from its successor list
+     * without making a map or locking the dictionary, so this is the way to
+     * go through the words after while writing.
+     *
+     * @param index This is the number away the occurrence is.
+     * @return The words after and their counts.
+     */
+    public Successors getSuccessors(int index) {
+        SuccessorList list = null;
+        Dictionary dictionary = null;
+        synchronized (this) {
+            if (frozen != null) {
+                list = frozen[index];
+                dictionary = frozenIn;
+            }
+        }
+        if (list == null) {
+            Map<String, Integer> map = getWordsAfter(index);
+            Successors successors = new Successors(map.size(), null);
+            int n = 0;
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                successors.names[n] = entry.getKey();
+                successors.counts[n++] = entry.getValue();
+            }
+            return successors;
+        }
+
+        Successors successors = new Successors(list.size(), dictionary);
+        list.decode(successors.ids, successors.counts);
+        for (int i = 0; i < successors.ids.length; i++) {
+            successors.words[i] = dictionary.getFrozenWord(successors.ids[i]);
+            successors.names[i] = successors.words[i].getName();
+        }
+        return successors;
+    }
+
+    /**
+     * Gets how many times one of the successors of another word followed this
+     * one index words away. When both words are frozen in the same
+     * dictionary the count is found by id, without looking up the name.
+     *
+     * @param index This is the number away the occurrence is.
+     * @param successors Successors of another word, from getSuccessors.
+     * @param k Which of the successors.
+     * @return The count, or 0 if the word never followed this one there.
+     */
+    public int getCountAfter(int index, Successors successors, int k) {
+        SuccessorList[] lists = frozen;
+        if (lists != null && successors.dictionary != null && frozenIn == successors.dictionary) {
+            return lists[index].count(successors.ids[k]);
+        }
+        return getCountAfter(index, successors.names[k]);
+    }
+
     /**
      * This gets a map containing the string representations of the words that
-     * follow this one index words away.
+     * follow this one index words away. A frozen word gives a copy of its
+     * counts.
      *
      * @param index This is the number away the occurrence is.
      * @return A map containing string representations of the words that
      * followed this one.
      */
-    public synchronized Map<String, Integer> getWordsAfter(int index) {
-        return wordsAfter.get(index);
+    public Map<String, Integer> getWordsAfter(int index) {
+        SuccessorList list;
+        Dictionary dictionary;
+        synchronized (this) {
+            if (frozen == null) {
+                return wordsAfter.get(index);
+            }
+            list = frozen[index];
+            dictionary = frozenIn;
+        }
+        return toMap(list, dictionary); //Frozen words give a copy
+    }
+
+    /**
+     * Gets how many times a word followed this one index words away.
+     *
+     * @param index This is the number away the occurrence is.
+     * @param name The string representation of the word after.
+     * @return The count, or 0 if the word never followed this one there.
+     */
+    public int getCountAfter(int index, String name) {
+        SuccessorList list;
+        Dictionary dictionary;
+        synchronized (this) {
+            if (frozen == null) {
+                Integer count = wordsAfter.get(index).get(name);
+                return count == null ? 0 : count;
+            }
+            list = frozen[index];
+            dictionary = frozenIn;
+        }
+        int id = dictionary.findWordId(name);
+        return id < 0 ? 0 : list.count(id);
+    }
+
+    /**
+     * The words that followed a word at one distance with their counts, as
+     * given by getSuccessors. Only the words after a frozen word come with
+     * their ids and Word objects; otherwise they must be looked up by name.
+     */
+    public static class Successors {
+
+        final String[] names;
+        final int[] counts;
+        final int[] ids;
+        final Word[] words;
+        final Dictionary dictionary;
+
+        Successors(int size, Dictionary dictionary) {
+            this.names = new String[size];
+            this.counts = new int[size];
+            this.dictionary = dictionary;
+            this.ids = dictionary == null ? null : new int[size];
+            this.words = dictionary == null ? null : new Word[size];
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String getName(int k) {
+            return names[k];
+        }
+
+        public int getCount(int k) {
+            return counts[k];
+        }
+
+        /**
+         * Gets a word after, looking it up by name if it did not come with
+         * the successors.
+         *
+         * @param k Which word after.
+         * @param dictionary The dictionary holding the word.
+         * @return The word.
+         */
+        public Word getWord(int k, Dictionary dictionary) {
+            return words != null ? words[k] : dictionary.getWord(names[k]);
+        }
+    }
+
+    /**
+     * Gets the number of entries in the words that follow, over every
+     * distance.
+     *
+     * @return The number of entries.
+     */
+    public synchronized long getEntryCount() {
+        long total = 0;
+        if (frozen != null) {
+            for (SuccessorList list : frozen) {
+                total += list.size();
+            }
+            return total;
+        }
+        for (Map<String, Integer> map : wordsAfter) {
+            total += map.size();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the total number of transitions recorded for this word over every
+     * distance.
+     *
+     * @return The sum of all the counts in the words after maps.
+     */
+    public synchronized long getTransitionCount() {
+        long total = 0;
+        if (frozen != null) {
+            for (SuccessorList list : frozen) {
+                total += list.total();
+            }
+            return total;
+        }
+        for (Map<String, Integer> map : wordsAfter) {
+            for (int count : map.values()) {
+                total += count;
+            }
+        }
+        return total;
     }
 
     /**
@@ -148,6 +516,33 @@ public class Word implements Serializable {
         return rarity;
     }
 
+    /**
+     * Writes the word with its words after as maps, frozen or not, so saved
+     * dictionaries do not depend on word ids.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        SuccessorList[] lists;
+        Dictionary dictionary;
+        List<Map<String, Integer>> maps;
+        synchronized (this) {
+            lists = frozen;
+            dictionary = frozenIn;
+            maps = wordsAfter;
+        }
+        if (lists != null) {
+            maps = new ArrayList<>();
+            for (SuccessorList list : lists) {
+                maps.add(toMap(list, dictionary));
+            }
+        }
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("rarity", rarity);
+        fields.put("wordsAfter", maps);
+        out.writeFields();
+    }
+
     /**
      * The toString() method... It does what every other toString() method
      * does...